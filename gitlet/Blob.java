@@ -1,21 +1,67 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
-public class Blob implements Serializable {
+public class Blob {
     /** SHA1 of the current blob. */
     private String shaID;
-    /** Contents of the current blob. */
-    private String blobContents;
+    /** Raw contents of the current blob. */
+    private byte[] blobContents;
 
     /** Blob class constructor that generates the SHA1 and the contents
      * of a file.
      * @param file blob file.
      * */
     public Blob(File file) {
-        shaID = Utils.sha1(Utils.readContents(file));
-        blobContents = Utils.readContentsAsString(file);
+        blobContents = Utils.readContents(file);
+        shaID = Utils.sha1(blobContents);
+    }
+
+    /** Blob class constructor for contents already read from the store.
+     * @param id SHA1 of the contents
+     * @param contents raw contents of the blob
+     * */
+    public Blob(String id, byte[] contents) {
+        shaID = id;
+        blobContents = contents;
+    }
+
+    /** Reads the blob with the given ID from the blob store.
+     * @param id SHA1 of the blob
+     * @return the stored blob
+     * */
+    public static Blob read(String id) {
+        return new Blob(id, Repo.BLOB_STORE.get(id));
+    }
+
+    /** Streams FILE into the blob store without reading it into memory.
+     * @param file file to store
+     * @return SHA1 of the file contents
+     * */
+    public static String store(File file) {
+        return Repo.BLOB_STORE.put(file);
+    }
+
+    /** Returns the SHA1 FILE would be stored under, without storing it.
+     * @param file file to hash
+     * @return SHA1 of the file contents
+     * */
+    public static String hash(File file) {
+        return ObjectStore.hash(file);
+    }
+
+    /** Streams the stored blob with the given ID back out to DEST.
+     * @param id SHA1 of the blob
+     * @param dest working file to overwrite
+     * */
+    public static void checkout(String id, File dest) {
+        Repo.BLOB_STORE.copyTo(id, dest);
+    }
+
+    /** Writes this blob into the blob store if it is not there yet. */
+    public void save() {
+        Repo.BLOB_STORE.put(shaID, blobContents);
     }
 
     /** Gets the SHA1 of the blob file.
@@ -29,6 +75,13 @@ public class Blob implements Serializable {
      * @return the content of the blob file.
      * */
     public String getBlobContents() {
+        return new String(blobContents, StandardCharsets.UTF_8);
+    }
+
+    /** Gets the raw bytes of the blob file.
+     * @return the raw content of the blob file.
+     * */
+    public byte[] getContents() {
         return this.blobContents;
     }
 }
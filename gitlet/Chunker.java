@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/** Splits a stream into content-defined chunks with FastCDC. A gear hash
+ *  rolls over the bytes, and a chunk ends where the top bits of the hash
+ *  are all zero, so the cut points depend only on the nearby contents:
+ *  an insertion or deletion moves the cut points around it but leaves
+ *  the chunks elsewhere unchanged. Hashing starts MIN_SIZE bytes into a
+ *  chunk, and the cut condition is stricter before AVG_SIZE and looser
+ *  after it, which keeps chunk sizes close to AVG_SIZE; no chunk is
+ *  longer than MAX_SIZE.
+ *  @author Abdumijit A. Dolkun
+ */
+public class Chunker {
+
+    /** Least length of a chunk, except the last. */
+    static final int MIN_SIZE = 2 << 10;
+
+    /** Typical length of a chunk. */
+    static final int AVG_SIZE = 8 << 10;
+
+    /** Most length of a chunk. */
+    static final int MAX_SIZE = 64 << 10;
+
+    /** Bits of the hash that must be zero for a cut before AVG_SIZE. */
+    private static final long MASK_SMALL = -1L << (64 - 15);
+
+    /** Bits of the hash that must be zero for a cut after AVG_SIZE. */
+    private static final long MASK_LARGE = -1L << (64 - 11);
+
+    /** Random value added to the hash for each byte value. The seed is
+     * fixed, since chunk boundaries must be the same in every run. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6769746C6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Stream being split. */
+    private final InputStream _in;
+
+    /** Bytes read from the stream but not yet returned. */
+    private final byte[] _buffer = new byte[MAX_SIZE];
+
+    /** Number of bytes in the buffer. */
+    private int _length;
+
+    /** Chunker class constructor.
+     * @param in stream to split
+     * */
+    public Chunker(InputStream in) {
+        _in = in;
+    }
+
+    /** Returns the next chunk of the stream.
+     * @return chunk contents, or null at the end of the stream
+     * */
+    public byte[] next() throws IOException {
+        _length += _in.readNBytes(_buffer, _length, MAX_SIZE - _length);
+        if (_length == 0) {
+            return null;
+        }
+        int n = cut(_buffer, _length);
+        byte[] chunk = Arrays.copyOf(_buffer, n);
+        System.arraycopy(_buffer, n, _buffer, 0, _length - n);
+        _length -= n;
+        return chunk;
+    }
+
+    /** Returns the length of the chunk at the start of DATA, of which
+     * LENGTH bytes are available. Fewer than MAX_SIZE bytes are available
+     * only at the end of the stream.
+     * @param data bytes to split
+     * @param length number of bytes of DATA to consider
+     * @return length of the first chunk
+     * */
+    static int cut(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(length, AVG_SIZE);
+        int end = Math.min(length, MAX_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,158 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/** Tests of content-defined chunking and of objects stored as chunks.
+ *  @author Abdumijit A. Dolkun
+ */
+public class ChunkerTest {
+
+    /** Returns the chunks of DATA.
+     * @param data bytes to split
+     * @return chunks in order
+     * */
+    private static List<byte[]> chunks(byte[] data) throws IOException {
+        ArrayList<byte[]> result = new ArrayList<>();
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+        for (byte[] chunk = chunker.next(); chunk != null;
+             chunk = chunker.next()) {
+            result.add(chunk);
+        }
+        return result;
+    }
+
+    /** Returns the SHA1 IDs of CHUNKS.
+     * @param chunks chunk contents
+     * @return set of IDs
+     * */
+    private static HashSet<String> ids(List<byte[]> chunks) {
+        HashSet<String> result = new HashSet<>();
+        for (byte[] chunk : chunks) {
+            result.add(Utils.sha1(chunk));
+        }
+        return result;
+    }
+
+    /** Returns DATA with INSERTED inserted at POS.
+     * @param data original bytes
+     * @param pos insertion point
+     * @param inserted bytes to insert
+     * @return edited bytes
+     * */
+    private static byte[] insert(byte[] data, int pos, byte[] inserted) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(data, 0, pos);
+        out.writeBytes(inserted);
+        out.write(data, pos, data.length - pos);
+        return out.toByteArray();
+    }
+
+    /** Chunks cover the input in order, keep within the size limits and
+     * average near AVG_SIZE. */
+    @Test
+    public void chunkSizes() throws IOException {
+        byte[] data = new byte[4 << 20];
+        new Random(25).nextBytes(data);
+        List<byte[]> chunks = chunks(data);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int k = 0; k < chunks.size(); k += 1) {
+            byte[] chunk = chunks.get(k);
+            assertTrue(chunk.length <= Chunker.MAX_SIZE);
+            assertTrue(k == chunks.size() - 1
+                    || chunk.length > Chunker.MIN_SIZE);
+            joined.writeBytes(chunk);
+        }
+        assertArrayEquals(data, joined.toByteArray());
+        int average = data.length / chunks.size();
+        assertTrue(average > Chunker.AVG_SIZE / 2);
+        assertTrue(average < Chunker.AVG_SIZE * 2);
+        assertEquals(List.of(), chunks(new byte[0]));
+    }
+
+    /** An insertion changes only the chunks around it: the cut points
+     * before it stay where they were and those after it move with the
+     * data, so nearly every chunk is shared with the old version. A
+     * long run of one byte is cut at MAX_SIZE. */
+    @Test
+    public void boundariesAreStable() throws IOException {
+        Random random = new Random(26);
+        byte[] data = new byte[2 << 20];
+        random.nextBytes(data);
+        HashSet<String> before = ids(chunks(data));
+        for (int n = 0; n < 10; n += 1) {
+            byte[] inserted = new byte[1 + random.nextInt(100)];
+            random.nextBytes(inserted);
+            List<byte[]> after = chunks(insert(data,
+                    random.nextInt(data.length), inserted));
+            HashSet<String> changed = ids(after);
+            changed.removeAll(before);
+            assertTrue(changed.size() <= 3);
+            assertTrue(after.size() - changed.size() >= before.size() - 3);
+        }
+        List<byte[]> zeros = chunks(new byte[Chunker.MAX_SIZE * 3]);
+        assertEquals(3, zeros.size());
+        assertEquals(Chunker.MAX_SIZE, zeros.get(0).length);
+    }
+
+    /** A large file is stored as chunks under the SHA1 of its whole
+     * contents and read back whole, both loose and after its manifest and
+     * chunks are packed. An edited version adds only a few chunks. */
+    @Test
+    public void chunkedObjectsReadBack() throws IOException {
+        File folder = Files.createTempDirectory("store").toFile();
+        Pack pack = new Pack(new File(folder, "pack"));
+        ObjectStore store = new ObjectStore(new File(folder, "blobs"), pack);
+        Random random = new Random(27);
+        byte[] data = new byte[(int) ObjectStore.CHUNK_THRESHOLD * 8];
+        random.nextBytes(data);
+        File file = new File(folder, "big");
+        Files.write(file.toPath(), data);
+
+        String id = store.put(file);
+        assertEquals(Utils.sha1(data), id);
+        assertEquals(List.of(id), store.manifestIds());
+        assertFalse(store.ids().contains(id));
+        int chunks = store.ids().size();
+        assertTrue(chunks > 1);
+        assertEquals(id, store.put(data));
+        assertArrayEquals(data, store.get(id));
+        File out = new File(folder, "out");
+        store.copyTo(id, out);
+        assertArrayEquals(data, Files.readAllBytes(out.toPath()));
+
+        byte[] edited = insert(data, data.length / 2, new byte[] {1, 2, 3});
+        String editedID = store.put(edited);
+        assertTrue(store.ids().size() - chunks <= 3);
+        assertArrayEquals(edited, store.get(editedID));
+
+        Pack.Writer writer = new Pack.Writer(pack);
+        for (String chunkID : store.ids()) {
+            writer.add(chunkID, Pack.BLOB, store.get(chunkID));
+        }
+        for (String manifestID : store.manifestIds()) {
+            writer.add(manifestID, Pack.MANIFEST, store.manifest(manifestID));
+        }
+        writer.finish();
+        for (String looseID : store.ids()) {
+            store.removeLoose(looseID);
+        }
+        for (String manifestID : store.manifestIds()) {
+            store.removeLoose(manifestID);
+        }
+        assertEquals(List.of(), store.manifestIds());
+        assertTrue(store.contains(id));
+        store.copyTo(editedID, out);
+        assertArrayEquals(edited, Files.readAllBytes(out.toPath()));
+    }
+}
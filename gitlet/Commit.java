@@ -1,13 +1,33 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Set;
 import java.util.TreeMap;
 
-public class Commit implements Serializable {
+/** A snapshot of the working directory with its message, time and
+ *  parents. A commit is stored as its encoding: a version byte, a byte of
+ *  flags saying which parents follow, the raw IDs of the root tree and of
+ *  the parents, the generation number, the timestamp and the length and
+ *  UTF-8 bytes of the message. Its ID is the SHA1 of that encoding.
+ *  @author Abdumijit A. Dolkun
+ */
+public class Commit {
+
+    /** Version of the commit encoding. */
+    private static final int VERSION = 1;
+
+    /** Encoding flag of a commit with a parent. */
+    private static final int HAS_PARENT = 1;
+
+    /** Encoding flag of a commit with a merge parent. */
+    private static final int HAS_MERGE_PARENT = 2;
 
     /** Commit message of the current Commit. */
     private String _message;
@@ -15,54 +35,160 @@ public class Commit implements Serializable {
     /** Timestamp of the current Commit. */
     private String _timestamp;
 
-    /** Older parent Commit of the current Commit. */
-    private Commit _mergeParent;
+    /** SHA1 ID of the older parent Commit of the current Commit, or null.
+     * Parents are stored by ID so that writing a Commit never serializes
+     * the history behind it. */
+    private String _mergeParentID;
+
+    /** SHA1 ID of the newer parent Commit of the current Commit, or null. */
+    private String _parentID;
 
-    /** Newer parent Commit of the current Commit. */
-    private Commit _parent;
+    /** Generation number of the current Commit: one more than the
+     * highest generation of its parents, and 1 for the initial commit. */
+    private int _generation;
 
-    /** Staged blobTree of the current Commit. */
-    private TreeMap<String, String> _blobMap;
+    /** SHA1 ID of the root Tree of the current Commit. */
+    private String _tree;
+
+    /** Format of commit timestamps. Day and month names are always in
+     * English, whatever the default locale, so that timestamps read the
+     * same everywhere and parse back. */
+    static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("E LLL dd HH:mm:ss u Z", Locale.US);
+
+    /** Offset written in every commit timestamp. */
+    private static final ZoneOffset TIMESTAMP_OFFSET = ZoneOffset.ofHours(-8);
 
     /** Commit ID of the current Commit. */
     private String _commitID;
 
     /** Commit class constructor that takes in the Commit message,
-     * staged blobTree, and the parent Commit.
-     * Generates the SHA1 Commit ID of the current Commit.
-     * Checks the parent stage blobTree to create a pointer in the
-     * current blobTree for any old blobs.
+     * the complete snapshot of files, and the parent Commits.
+     * Writes the trees of the snapshot and generates the SHA1 Commit ID
+     * of the current Commit.
      * @param msg commit message
-     * @param blobMap stage treemap
+     * @param blobMap path to blob ID of every file in the commit
      * @param mergeParent merge parent commit
      * @param parent parent commit
-     * @param currRepo repo
      * */
     public Commit(String msg, TreeMap<String, String> blobMap,
-                  Commit mergeParent, Commit parent, Repo currRepo) {
+                  Commit mergeParent, Commit parent) {
+        this(msg, Tree.write(blobMap), mergeParent, parent);
+    }
+
+    /** Commit class constructor that takes in the Commit message, the ID
+     * of an already written root Tree, and the parent Commits. Generates
+     * the SHA1 Commit ID of the current Commit.
+     * @param msg commit message
+     * @param tree SHA1 ID of the root tree of the commit
+     * @param mergeParent merge parent commit
+     * @param parent parent commit
+     * */
+    public Commit(String msg, String tree,
+                  Commit mergeParent, Commit parent) {
         _message = msg;
-        _mergeParent = mergeParent;
-        _parent = parent;
-        _blobMap = blobMap;
-        ArrayList<String> removeList = currRepo.getStage().getRemoveList();
+        _mergeParentID = mergeParent == null
+                ? null : mergeParent.getCommitID();
+        _parentID = parent == null ? null : parent.getCommitID();
+        _generation = 1 + Math.max(
+                parent == null ? 0 : parent.getGeneration(),
+                mergeParent == null ? 0 : mergeParent.getGeneration());
+        _tree = tree;
 
         if (parent == null) {
             this._timestamp = "Thu Jan 01 00:00:00 1970 -0800";
         } else {
-            this._timestamp = LocalDateTime.now().format(
-                    DateTimeFormatter.ofPattern("E LLL dd HH:mm:ss u"
-                            + " -0800"));
-
-            Set<String> pBlobKeys = parent.getBlobMap().keySet();
-            Set<String> currBlobKeys = this.getBlobMap().keySet();
-            for (String bKey : pBlobKeys) {
-                if (!currBlobKeys.contains(bKey)
-                        && !removeList.contains(bKey)) {
-                    _blobMap.put(bKey, parent.getBlobMap().get(bKey));
-                }
+            this._timestamp = LocalDateTime.now()
+                    .atOffset(TIMESTAMP_OFFSET).format(TIMESTAMP_FORMAT);
+        }
+        _commitID = Utils.sha1(toBytes());
+    }
+
+    /** Commit class constructor used when decoding a stored commit. */
+    private Commit() {
+    }
+
+    /** Returns the encoding of the current Commit, which is what is
+     * stored and what its ID is the SHA1 of. The timestamp is written as
+     * DataOutput.writeUTF writes it, a two-byte length and the bytes.
+     * @return encoded commit
+     * */
+    public byte[] toBytes() {
+        byte[] timestamp = _timestamp.getBytes(StandardCharsets.UTF_8);
+        byte[] message = _message.getBytes(StandardCharsets.UTF_8);
+        int parents = (_parentID == null ? 0 : 1)
+                + (_mergeParentID == null ? 0 : 1);
+        ByteBuffer out = ByteBuffer.allocate(2 + Pack.ID_BYTES * (1 + parents)
+                + 4 + 2 + timestamp.length + 4 + message.length);
+        out.put((byte) VERSION);
+        out.put((byte) ((_parentID == null ? 0 : HAS_PARENT)
+                | (_mergeParentID == null ? 0 : HAS_MERGE_PARENT)));
+        out.put(Pack.toBytes(_tree));
+        if (_parentID != null) {
+            out.put(Pack.toBytes(_parentID));
+        }
+        if (_mergeParentID != null) {
+            out.put(Pack.toBytes(_mergeParentID));
+        }
+        out.putInt(_generation);
+        out.putShort((short) timestamp.length);
+        out.put(timestamp);
+        out.putInt(message.length);
+        out.put(message);
+        return out.array();
+    }
+
+    /** Decodes the commit ID from BYTES, its encoding.
+     * @param id SHA1 ID of the commit
+     * @param bytes encoded commit
+     * @return decoded commit
+     * */
+    public static Commit fromBytes(String id, byte[] bytes) {
+        Commit commit = new Commit();
+        commit._commitID = id;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (in.get() != VERSION) {
+                throw Utils.error("Unrecognized format of commit %s.", id);
+            }
+            int flags = in.get();
+            commit._tree = readId(in);
+            if ((flags & HAS_PARENT) != 0) {
+                commit._parentID = readId(in);
+            }
+            if ((flags & HAS_MERGE_PARENT) != 0) {
+                commit._mergeParentID = readId(in);
             }
+            commit._generation = in.getInt();
+            commit._timestamp = readString(in, in.getShort() & 0xffff);
+            commit._message = readString(in, in.getInt());
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                 | IllegalArgumentException excp) {
+            throw Utils.error("Corrupt commit %s.", id);
         }
-        _commitID = Utils.sha1(Utils.serialize(this));
+        return commit;
+    }
+
+    /** Reads a raw ID from IN.
+     * @param in encoded commit
+     * @return SHA1 ID
+     * */
+    private static String readId(ByteBuffer in) {
+        String id = Pack.toHex(in.array(), in.position(), Pack.ID_BYTES);
+        in.position(in.position() + Pack.ID_BYTES);
+        return id;
+    }
+
+    /** Reads LENGTH bytes of UTF-8 text from IN.
+     * @param in encoded commit
+     * @param length length of the text in bytes
+     * @return decoded text
+     * */
+    private static String readString(ByteBuffer in, int length) {
+        String text = new String(in.array(), in.position(), length,
+                StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return text;
     }
 
     /** Gets the commit message of the current Commit.
@@ -79,18 +205,61 @@ public class Commit implements Serializable {
         return this._timestamp;
     }
 
-    /** Gets the newer parent Commit of the current Commit.
+    /** Gets the time of the current Commit.
+     * @return seconds since the epoch.
+     * */
+    public long getTime() {
+        return OffsetDateTime.parse(_timestamp, TIMESTAMP_FORMAT)
+                .toEpochSecond();
+    }
+
+    /** Gets the newer parent Commit of the current Commit, loading it
+     * from the commit folder on demand.
      * @return Papa of the current commit.
      * */
     public Commit getParent() {
-        return this._parent;
+        return load(_parentID);
     }
 
-    /** Gets the oder parent Commit of the current Commit.
+    /** Gets the oder parent Commit of the current Commit, loading it
+     * from the commit folder on demand.
      * @return Grandpa of the current commit.
      * */
     public Commit getMergeParent() {
-        return this._mergeParent;
+        return load(_mergeParentID);
+    }
+
+    /** Gets the SHA1 ID of the newer parent Commit.
+     * @return parent commit ID, or null for the initial commit.
+     * */
+    public String getParentID() {
+        return this._parentID;
+    }
+
+    /** Gets the SHA1 ID of the older parent Commit.
+     * @return merge parent commit ID, or null if not a merge commit.
+     * */
+    public String getMergeParentID() {
+        return this._mergeParentID;
+    }
+
+    /** Gets the generation number of the current Commit. A commit always
+     * has a higher generation than each of its ancestors.
+     * @return generation number, 1 for the initial commit.
+     * */
+    public int getGeneration() {
+        return this._generation;
+    }
+
+    /** Commit loader used to follow parent IDs.
+     * @param commitID SHA1 ID of the commit, possibly null
+     * @return the stored commit, or null if COMMITID is null.
+     * */
+    private static Commit load(String commitID) {
+        if (commitID == null) {
+            return null;
+        }
+        return RepoCommand.readCommit(commitID);
     }
 
     /** Gets the SHA1 ID of the current Commit.
@@ -100,36 +269,39 @@ public class Commit implements Serializable {
         return this._commitID;
     }
 
-    /** Gets the staged files for the current Commit.
-     * @return Stage treemap of the commit.
+    /** Gets the SHA1 ID of the root Tree of the current Commit.
+     * @return root tree ID
      * */
-    public TreeMap<String, String> getBlobMap() {
-        return this._blobMap;
+    public String getTree() {
+        return this._tree;
     }
 
-    /** Adds a map to the current commit blobMap.
-     * @param fileName file name
-     * @param blob the blob file
+    /** Gets the files of the current Commit, read from its trees. The map
+     * is new on every call and belongs to the caller: commits are shared
+     * through the commit cache, which weighs them by their encoding, so a
+     * commit does not keep its flattened files.
+     * @return path to blob ID map of the commit.
      * */
-    public void addBlob(String fileName, Blob blob) {
-        this._blobMap.put(fileName, blob.getShaID());
-        Utils.writeObject(Utils.join(Repo.BLOB_FOLDER, blob.getShaID()), blob);
+    public TreeMap<String, String> getBlobMap() {
+        TreeMap<String, String> blobMap = new TreeMap<>();
+        Tree.flatten(_tree, "", blobMap);
+        return blobMap;
     }
 
-    /** Removes a map from the current commit blobMap.
-     * @param fileName File name
+    /** Gets the blob ID of one file of the current Commit, reading only
+     * the trees on the way to it.
+     * @param path relative path of the file
+     * @return SHA1 ID of the blob, or null if the commit has no such file
      * */
-    public void removeBlob(String fileName) {
-        if (_blobMap.containsKey(fileName)) {
-            this._blobMap.remove(fileName);
-        }
+    public String getBlobID(String path) {
+        return Tree.find(_tree, path);
     }
 
     /** Returns all the blobMap keys of the commit.
      * @return A set of all keys
      * */
     public Set<String> getBlobKeys() {
-        return this._blobMap.keySet();
+        return getBlobMap().keySet();
     }
 
 }
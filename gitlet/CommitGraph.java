@@ -0,0 +1,486 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** The commit graph: one fixed-width record per commit holding its ID,
+ *  the positions of its parents, its generation number, its root tree
+ *  ID and its commit time, so that history can be walked without
+ *  reading any commit. The graph is kept in two files. The base file,
+ *  read through a memory mapping, holds a 256-entry fan-out table and
+ *  records sorted by commit ID. The tail file holds the records of the
+ *  commits made since the base was written, in commit order. Once the
+ *  tail grows past TAIL_LIMIT records it is folded into a new base.
+ *  Positions number the base records first and then the tail records.
+ *  @author Abdumijit A. Dolkun
+ */
+public class CommitGraph {
+
+    /** Position of a missing parent. */
+    static final int NONE = -1;
+
+    /** Magic number at the head of the base file. */
+    private static final int MAGIC = 0x43475048;
+
+    /** Version of the commit-graph format. */
+    private static final int VERSION = 1;
+
+    /** Number of fan-out buckets, one per leading ID byte. */
+    private static final int FANOUT = 256;
+
+    /** Length of a raw ID in bytes. */
+    private static final int ID_BYTES = Pack.ID_BYTES;
+
+    /** Width of a record: ID, two parent positions, generation, tree ID
+     * and commit time. */
+    private static final int RECORD = ID_BYTES + 4 + 4 + 4 + ID_BYTES + 8;
+
+    /** Offset of the parent position in a record. */
+    private static final int PARENT = ID_BYTES;
+
+    /** Offset of the merge parent position in a record. */
+    private static final int MERGE_PARENT = PARENT + 4;
+
+    /** Offset of the generation number in a record. */
+    private static final int GENERATION = MERGE_PARENT + 4;
+
+    /** Offset of the tree ID in a record. */
+    private static final int TREE = GENERATION + 4;
+
+    /** Offset of the commit time in a record. */
+    private static final int TIME = TREE + ID_BYTES;
+
+    /** Offset of the first record in the base file. */
+    private static final int HEADER = 12 + 4 * FANOUT;
+
+    /** Offset of the first record in the tail file, after the size of the
+     * base it extends. */
+    private static final int TAIL_HEADER = 4;
+
+    /** Number of tail records at which the tail is folded into the base. */
+    private static final int TAIL_LIMIT = 128;
+
+    /** Folder holding the commit-graph files. */
+    private final File _folder;
+
+    /** Mapped base file, or null if not loaded. */
+    private ByteBuffer _base;
+
+    /** Number of records in the base. */
+    private int _baseSize;
+
+    /** Tail records, or null if not loaded. */
+    private ByteBuffer _tail;
+
+    /** Number of records in the tail. */
+    private int _tailSize;
+
+    /** CommitGraph class constructor. The files are read on first use.
+     * @param folder folder holding the commit-graph files
+     * */
+    public CommitGraph(File folder) {
+        _folder = folder;
+    }
+
+    /** Returns the base file.
+     * @return base file
+     * */
+    File baseFile() {
+        return Utils.join(_folder, "commit-graph");
+    }
+
+    /** Returns the tail file.
+     * @return tail file
+     * */
+    File tailFile() {
+        return Utils.join(_folder, "commit-graph-tail");
+    }
+
+    /** Reads the graph files if they are not loaded yet. A tail written
+     * against a base of a different size is left over from a fold that
+     * was interrupted; its records are all in the base, so it is ignored.
+     * */
+    private void load() {
+        if (_base != null) {
+            return;
+        }
+        if (baseFile().isFile()) {
+            _base = map(baseFile());
+            if (_base.getInt(0) != MAGIC || _base.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt commit graph.");
+            }
+            _baseSize = _base.getInt(8);
+        } else {
+            _base = ByteBuffer.allocate(0);
+            _baseSize = 0;
+        }
+        _tail = ByteBuffer.allocate(0);
+        _tailSize = 0;
+        if (tailFile().isFile()) {
+            ByteBuffer tail = ByteBuffer.wrap(Utils.readContents(tailFile()));
+            if (tail.capacity() >= TAIL_HEADER
+                    && tail.getInt(0) == _baseSize) {
+                _tail = tail;
+                _tailSize = (tail.capacity() - TAIL_HEADER) / RECORD;
+            }
+        }
+    }
+
+    /** Drops the loaded graph so that the next lookup reads the files
+     * from disk again. */
+    void reload() {
+        _base = null;
+    }
+
+    /** Returns a read-only mapping of FILE.
+     * @param file file to map
+     * @return mapped contents
+     * */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot map %s.", file.getName());
+        }
+    }
+
+    /** Returns the number of commits in the graph.
+     * @return commit count
+     * */
+    public int size() {
+        load();
+        return _baseSize + _tailSize;
+    }
+
+    /** Returns the position of the commit ID, or NONE if it is not in the
+     * graph.
+     * @param id SHA1 ID of the commit
+     * @return position of its record
+     * */
+    public int find(String id) {
+        load();
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return NONE;
+        }
+        byte[] key;
+        try {
+            key = Pack.toBytes(id);
+        } catch (NumberFormatException excp) {
+            return NONE;
+        }
+        if (_baseSize > 0) {
+            int bucket = key[0] & 0xff;
+            int lo = bucket == 0 ? 0 : _base.getInt(12 + 4 * (bucket - 1));
+            int hi = _base.getInt(12 + 4 * bucket) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareId(mid, key);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+        }
+        for (int pos = _baseSize; pos < size(); pos += 1) {
+            if (compareId(pos, key) == 0) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the IDs of the commits whose IDs start with PREFIX, at
+     * most LIMIT of them. The base is searched by binary search from the
+     * fan-out bucket of the prefix, and only the tail is scanned.
+     * @param prefix leading hexadecimal digits of a commit ID
+     * @param limit most matches wanted
+     * @return matching commitIDs
+     * */
+    public List<String> matches(String prefix, int limit) {
+        load();
+        ArrayList<String> result = new ArrayList<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH
+                || !prefix.matches("[0-9a-f]+")) {
+            return result;
+        }
+        int lo = 0;
+        int hi = _baseSize;
+        if (prefix.length() >= 2 && _baseSize > 0) {
+            int bucket = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = bucket == 0 ? 0 : _base.getInt(12 + 4 * (bucket - 1));
+            hi = _base.getInt(12 + 4 * bucket);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (id(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int pos = lo; pos < _baseSize && result.size() < limit;
+             pos += 1) {
+            String id = id(pos);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (int pos = _baseSize; pos < size() && result.size() < limit;
+             pos += 1) {
+            String id = id(pos);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Compares the ID of the record at POS with KEY.
+     * @param pos record position
+     * @param key raw commit ID
+     * @return negative, zero or positive as for compareTo
+     * */
+    private int compareId(int pos, byte[] key) {
+        ByteBuffer buf = buffer(pos);
+        int base = offset(pos);
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int a = buf.get(base + i) & 0xff;
+            int b = key[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the buffer holding the record at POS.
+     * @param pos record position
+     * @return base or tail buffer
+     * */
+    private ByteBuffer buffer(int pos) {
+        return pos < _baseSize ? _base : _tail;
+    }
+
+    /** Returns the offset of the record at POS in its buffer.
+     * @param pos record position
+     * @return byte offset
+     * */
+    private int offset(int pos) {
+        return pos < _baseSize ? HEADER + pos * RECORD
+                : TAIL_HEADER + (pos - _baseSize) * RECORD;
+    }
+
+    /** Returns the ID of the raw bytes at OFF in the record at POS.
+     * @param pos record position
+     * @param off offset of the ID in the record
+     * @return SHA1 ID
+     * */
+    private String readId(int pos, int off) {
+        byte[] raw = new byte[ID_BYTES];
+        ByteBuffer buf = buffer(pos).duplicate();
+        buf.position(offset(pos) + off);
+        buf.get(raw);
+        return Pack.toHex(raw);
+    }
+
+    /** Returns the commit ID at POS.
+     * @param pos record position
+     * @return SHA1 ID of the commit
+     * */
+    public String id(int pos) {
+        return readId(pos, 0);
+    }
+
+    /** Returns the position of the parent of the commit at POS.
+     * @param pos record position
+     * @return parent position, or NONE for the initial commit
+     * */
+    public int parent(int pos) {
+        return buffer(pos).getInt(offset(pos) + PARENT);
+    }
+
+    /** Returns the position of the merge parent of the commit at POS.
+     * @param pos record position
+     * @return merge parent position, or NONE if not a merge commit
+     * */
+    public int mergeParent(int pos) {
+        return buffer(pos).getInt(offset(pos) + MERGE_PARENT);
+    }
+
+    /** Returns the generation number of the commit at POS.
+     * @param pos record position
+     * @return generation number
+     * */
+    public int generation(int pos) {
+        return buffer(pos).getInt(offset(pos) + GENERATION);
+    }
+
+    /** Returns the root tree ID of the commit at POS.
+     * @param pos record position
+     * @return SHA1 ID of the tree
+     * */
+    public String tree(int pos) {
+        return readId(pos, TREE);
+    }
+
+    /** Returns the commit time of the commit at POS.
+     * @param pos record position
+     * @return seconds since the epoch
+     * */
+    public long time(int pos) {
+        return buffer(pos).getLong(offset(pos) + TIME);
+    }
+
+    /** Appends COMMIT, whose parents must already be in the graph, and
+     * folds the tail into the base once it is long enough. The tail is
+     * rewritten whole rather than appended to, so an interrupted write
+     * leaves the old tail instead of a torn record.
+     * @param commit newly written commit
+     * */
+    public void add(Commit commit) {
+        load();
+        if (find(commit.getCommitID()) != NONE) {
+            return;
+        }
+        int length = TAIL_HEADER + _tailSize * RECORD;
+        ByteBuffer tail = ByteBuffer.allocate(length + RECORD);
+        tail.put(_tail.array(), 0, _tailSize == 0 ? 0 : length);
+        tail.putInt(0, _baseSize);
+        putRecord(tail, length, commit.getCommitID(),
+                find(commit.getParentID()), find(commit.getMergeParentID()),
+                commit.getGeneration(), commit.getTree(), commit.getTime());
+        Utils.writeContentsAtomically(tailFile(), (Object) tail.array());
+        _base = null;
+        if (_tailSize + 1 >= TAIL_LIMIT) {
+            fold();
+        }
+    }
+
+    /** Writes every record of the base and the tail into a new base and
+     * drops the tail. */
+    public void fold() {
+        load();
+        int n = size();
+        String[] ids = new String[n];
+        for (int pos = 0; pos < n; pos += 1) {
+            ids[pos] = id(pos);
+        }
+        Row[] rows = new Row[n];
+        for (int pos = 0; pos < n; pos += 1) {
+            Row row = new Row();
+            row._id = ids[pos];
+            row._parent = parent(pos) == NONE ? null : ids[parent(pos)];
+            row._mergeParent = mergeParent(pos) == NONE
+                    ? null : ids[mergeParent(pos)];
+            row._generation = generation(pos);
+            row._tree = tree(pos);
+            row._time = time(pos);
+            rows[pos] = row;
+        }
+        write(Arrays.asList(rows));
+    }
+
+    /** Replaces the graph with one holding exactly COMMITS.
+     * @param commits every commit in the repository
+     * */
+    public void rebuild(List<Commit> commits) {
+        ArrayList<Row> rows = new ArrayList<>();
+        for (Commit commit : commits) {
+            Row row = new Row();
+            row._id = commit.getCommitID();
+            row._parent = commit.getParentID();
+            row._mergeParent = commit.getMergeParentID();
+            row._generation = commit.getGeneration();
+            row._tree = commit.getTree();
+            row._time = commit.getTime();
+            rows.add(row);
+        }
+        write(rows);
+    }
+
+    /** Writes ROWS as the new base, sorted by ID, and drops the tail.
+     * @param rows records of every commit
+     * */
+    private void write(List<Row> rows) {
+        ArrayList<Row> sorted = new ArrayList<>(rows);
+        sorted.sort((a, b) -> a._id.compareTo(b._id));
+        HashMap<String, Integer> positions = new HashMap<>();
+        for (int pos = 0; pos < sorted.size(); pos += 1) {
+            positions.put(sorted.get(pos)._id, pos);
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + sorted.size() * RECORD);
+        out.putInt(0, MAGIC);
+        out.putInt(4, VERSION);
+        out.putInt(8, sorted.size());
+        int[] counts = new int[FANOUT];
+        for (Row row : sorted) {
+            counts[Integer.parseInt(row._id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 0, total = 0; b < FANOUT; b += 1) {
+            total += counts[b];
+            out.putInt(12 + 4 * b, total);
+        }
+        for (int pos = 0; pos < sorted.size(); pos += 1) {
+            Row row = sorted.get(pos);
+            putRecord(out, HEADER + pos * RECORD, row._id,
+                    positions.getOrDefault(row._parent, NONE),
+                    positions.getOrDefault(row._mergeParent, NONE),
+                    row._generation, row._tree, row._time);
+        }
+        _base = null;
+        Utils.writeContentsAtomically(baseFile(), (Object) out.array());
+        tailFile().delete();
+    }
+
+    /** Writes one record into OUT at OFF.
+     * @param out destination buffer
+     * @param off offset of the record
+     * @param id SHA1 ID of the commit
+     * @param parent parent position, or NONE
+     * @param mergeParent merge parent position, or NONE
+     * @param generation generation number
+     * @param tree SHA1 ID of the root tree
+     * @param time commit time in seconds since the epoch
+     * */
+    private static void putRecord(ByteBuffer out, int off, String id,
+                                  int parent, int mergeParent,
+                                  int generation, String tree, long time) {
+        out.put(off, Pack.toBytes(id));
+        out.putInt(off + PARENT, parent);
+        out.putInt(off + MERGE_PARENT, mergeParent);
+        out.putInt(off + GENERATION, generation);
+        out.put(off + TREE, Pack.toBytes(tree));
+        out.putLong(off + TIME, time);
+    }
+
+    /** The fields of one record, with parents named by ID. */
+    private static class Row {
+        /** SHA1 ID of the commit. */
+        private String _id;
+        /** SHA1 ID of the parent, or null. */
+        private String _parent;
+        /** SHA1 ID of the merge parent, or null. */
+        private String _mergeParent;
+        /** Generation number. */
+        private int _generation;
+        /** SHA1 ID of the root tree. */
+        private String _tree;
+        /** Commit time in seconds since the epoch. */
+        private long _time;
+    }
+}
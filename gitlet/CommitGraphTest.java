@@ -0,0 +1,163 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/** Tests of the commit graph.
+ *  @author Abdumijit A. Dolkun
+ */
+public class CommitGraphTest {
+
+    /** ID of a tree, which is never read by these tests. */
+    private static final String TREE =
+            "0123456789abcdef0123456789abcdef01234567";
+
+    /** Returns COUNT commits on a few branches that merge into each
+     * other now and then, parents first.
+     * @param count number of commits after the initial one
+     * @return commits
+     * */
+    private static List<Commit> history(int count) {
+        Random random = new Random(17);
+        ArrayList<Commit> commits = new ArrayList<>();
+        Commit[] heads = new Commit[4];
+        heads[0] = new Commit("initial commit", TREE, null, null);
+        commits.add(heads[0]);
+        for (int n = 0; n < count; n += 1) {
+            int b = random.nextInt(heads.length);
+            Commit parent = heads[b] == null ? heads[0] : heads[b];
+            int m = random.nextInt(heads.length);
+            Commit merge = n % 5 == 0 && heads[m] != null
+                    && heads[m] != parent ? heads[m] : null;
+            heads[b] = new Commit("commit " + n, TREE, merge, parent);
+            commits.add(heads[b]);
+        }
+        return commits;
+    }
+
+    /** Checks that GRAPH holds exactly COMMITS, with their parents,
+     * generations, trees and times.
+     * @param graph graph to check
+     * @param commits expected commits
+     * */
+    private static void check(CommitGraph graph, List<Commit> commits) {
+        assertEquals(commits.size(), graph.size());
+        for (Commit commit : commits) {
+            int pos = graph.find(commit.getCommitID());
+            assertNotEquals(CommitGraph.NONE, pos);
+            assertEquals(commit.getCommitID(), graph.id(pos));
+            assertEquals(commit.getParentID(), idAt(graph,
+                    graph.parent(pos)));
+            assertEquals(commit.getMergeParentID(), idAt(graph,
+                    graph.mergeParent(pos)));
+            assertEquals(commit.getGeneration(), graph.generation(pos));
+            assertEquals(commit.getTree(), graph.tree(pos));
+            assertEquals(commit.getTime(), graph.time(pos));
+        }
+    }
+
+    /** Returns the ID at POS of GRAPH, or null for NONE.
+     * @param graph commit graph
+     * @param pos record position
+     * @return commit ID
+     * */
+    private static String idAt(CommitGraph graph, int pos) {
+        return pos == CommitGraph.NONE ? null : graph.id(pos);
+    }
+
+    /** Commits appended one at a time are found with their parents while
+     * they sit in the tail, after the tail is folded into the base, and
+     * when the files are read again by a new graph. */
+    @Test
+    public void foldsTailIntoBase() throws IOException {
+        File folder = Files.createTempDirectory("graph").toFile();
+        CommitGraph graph = new CommitGraph(folder);
+        List<Commit> commits = history(400);
+        for (int n = 0; n < commits.size(); n += 1) {
+            graph.add(commits.get(n));
+            if (n % 37 == 0 || n == commits.size() - 1) {
+                check(graph, commits.subList(0, n + 1));
+            }
+        }
+        assertTrue(graph.baseFile().isFile());
+        assertTrue(graph.tailFile().isFile());
+        check(new CommitGraph(folder), commits);
+        graph.fold();
+        assertFalse(graph.tailFile().exists());
+        check(graph, commits);
+        check(new CommitGraph(folder), commits);
+    }
+
+    /** A tail left over from a fold that was interrupted after the new
+     * base was written is ignored, since its commits are in the base. */
+    @Test
+    public void ignoresStaleTail() throws IOException {
+        File folder = Files.createTempDirectory("graph").toFile();
+        CommitGraph graph = new CommitGraph(folder);
+        List<Commit> commits = history(200);
+        for (Commit commit : commits) {
+            graph.add(commit);
+        }
+        byte[] tail = Utils.readContents(graph.tailFile());
+        graph.fold();
+        Utils.writeContents(graph.tailFile(), (Object) tail);
+        check(new CommitGraph(folder), commits);
+    }
+
+    /** The partial record an interrupted write left at the end of the
+     * tail is dropped, so commits added afterwards are read back at the
+     * right positions. */
+    @Test
+    public void dropsTornRecord() throws IOException {
+        File folder = Files.createTempDirectory("graph").toFile();
+        CommitGraph graph = new CommitGraph(folder);
+        List<Commit> commits = history(60);
+        for (Commit commit : commits.subList(0, 30)) {
+            graph.add(commit);
+        }
+        byte[] tail = Utils.readContents(graph.tailFile());
+        byte[] torn = new byte[tail.length + 17];
+        System.arraycopy(tail, 0, torn, 0, tail.length);
+        Utils.writeContents(graph.tailFile(), (Object) torn);
+        graph = new CommitGraph(folder);
+        for (Commit commit : commits.subList(30, commits.size())) {
+            graph.add(commit);
+        }
+        check(graph, commits);
+        check(new CommitGraph(folder), commits);
+    }
+
+    /** A rebuilt graph holds exactly the given commits, and IDs are found
+     * by prefix in both the base and the tail. */
+    @Test
+    public void rebuildsAndMatchesPrefixes() throws IOException {
+        File folder = Files.createTempDirectory("graph").toFile();
+        CommitGraph graph = new CommitGraph(folder);
+        List<Commit> commits = history(300);
+        graph.rebuild(commits.subList(0, 250));
+        for (Commit commit : commits.subList(250, commits.size())) {
+            graph.add(commit);
+        }
+        check(graph, commits);
+        for (Commit commit : commits.subList(240, 260)) {
+            String prefix = commit.getCommitID().substring(0, 3);
+            TreeSet<String> expected = new TreeSet<>();
+            for (Commit other : commits) {
+                if (other.getCommitID().startsWith(prefix)) {
+                    expected.add(other.getCommitID());
+                }
+            }
+            assertEquals(expected,
+                    new TreeSet<>(graph.matches(prefix, 1000)));
+        }
+        assertEquals(CommitGraph.NONE, graph.find(Utils.sha1("absent")));
+    }
+}
@@ -0,0 +1,152 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** Tests of the Commit encoding and timestamps.
+ *  @author Abdumijit A. Dolkun
+ */
+public class CommitTest {
+
+    /** ID of an empty tree, which is never read by these tests. */
+    private static final String TREE =
+            "0123456789abcdef0123456789abcdef01234567";
+
+    /** Commits made and decoded under a non-English default locale keep
+     * English timestamps that parse back to their time. */
+    @Test
+    public void timestampIgnoresLocale() {
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.FRANCE);
+            Commit initial = new Commit("initial commit", TREE, null, null);
+            assertEquals("Thu Jan 01 00:00:00 1970 -0800",
+                    initial.getTimestamp());
+            assertEquals(8 * 3600, initial.getTime());
+
+            long before = System.currentTimeMillis() / 1000;
+            Commit child = new Commit("child", TREE, null, initial);
+            assertTrue(child.getTimestamp().matches("[A-Z][a-z]{2} "
+                    + "[A-Z][a-z]{2} \\d\\d [0-9:]{8} \\d{4} -0800"));
+            Commit decoded = Commit.fromBytes(child.getCommitID(),
+                    child.toBytes());
+            assertEquals(child.getTimestamp(), decoded.getTimestamp());
+            assertEquals(child.getTime(), decoded.getTime());
+            assertTrue(Math.abs(child.getTime() - before) < 24 * 3600);
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    /** A commit decodes to the same fields and ID it was encoded from. */
+    @Test
+    public void encodingRoundTrips() {
+        Commit initial = new Commit("initial commit", TREE, null, null);
+        Commit merge = new Commit("Merged b into a.", TREE, initial, initial);
+        Commit decoded = Commit.fromBytes(merge.getCommitID(),
+                merge.toBytes());
+        assertEquals(merge.getMessage(), decoded.getMessage());
+        assertEquals(initial.getCommitID(), decoded.getParentID());
+        assertEquals(initial.getCommitID(), decoded.getMergeParentID());
+        assertEquals(2, decoded.getGeneration());
+        assertEquals(TREE, decoded.getTree());
+        assertEquals(merge.getCommitID(), Utils.sha1(decoded.toBytes()));
+    }
+
+    /** Every truncation of an encoded commit is reported as corrupt. */
+    @Test
+    public void truncationsAreReported() {
+        Commit initial = new Commit("initial commit", TREE, null, null);
+        Commit merge = new Commit("Merged b into a.", TREE, initial, initial);
+        byte[] bytes = merge.toBytes();
+        for (int n = 0; n < bytes.length; n += 1) {
+            try {
+                Commit.fromBytes(merge.getCommitID(),
+                        Arrays.copyOf(bytes, n));
+                fail("truncated to " + n);
+            } catch (GitletException excp) {
+                assertTrue(excp.getMessage().startsWith("Corrupt commit"));
+            }
+        }
+    }
+
+    /** The fields of a commit, written with Java serialization as commits
+     * were before they had an encoding of their own. */
+    private static class SerialCommit implements Serializable {
+        /** Commit message. */
+        private String _message;
+        /** Timestamp. */
+        private String _timestamp;
+        /** Parent ID. */
+        private String _parentID;
+        /** Merge parent ID. */
+        private String _mergeParentID;
+        /** Root tree ID. */
+        private String _tree;
+        /** Generation number. */
+        private int _generation;
+    }
+
+    /** Returns the least time in nanoseconds of ROUNDS runs of ACTION.
+     * @param rounds number of timed runs
+     * @param action code to time
+     * @return fastest run
+     * */
+    private static long fastest(int rounds, Runnable action) {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r += 1) {
+            long start = System.nanoTime();
+            action.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /** Encoding and decoding a commit is at least five times faster than
+     * a round trip of the same fields through Java serialization. Each
+     * side is warmed up first and timed by its fastest of several runs,
+     * and the times are printed. */
+    @Test
+    public void codecBeatsSerialization() {
+        Commit initial = new Commit("initial commit", TREE, null, null);
+        Commit commit = new Commit("Fix the parser for nested merges.",
+                TREE, initial, initial);
+        SerialCommit serial = new SerialCommit();
+        serial._message = commit.getMessage();
+        serial._timestamp = commit.getTimestamp();
+        serial._parentID = commit.getParentID();
+        serial._mergeParentID = commit.getMergeParentID();
+        serial._tree = commit.getTree();
+        serial._generation = commit.getGeneration();
+        int n = 20000;
+        Runnable codec = () -> {
+            for (int i = 0; i < n; i += 1) {
+                Commit.fromBytes(commit.getCommitID(), commit.toBytes());
+            }
+        };
+        Runnable java = () -> {
+            for (int i = 0; i < n; i += 1) {
+                byte[] bytes = Utils.serialize(serial);
+                try (ObjectInputStream in = new ObjectInputStream(
+                        new ByteArrayInputStream(bytes))) {
+                    in.readObject();
+                } catch (IOException | ClassNotFoundException excp) {
+                    throw new AssertionError(excp);
+                }
+            }
+        };
+        long codecTime = fastest(10, codec);
+        long javaTime = fastest(10, java);
+        System.out.printf("commit round trip: codec %.2f us, "
+                + "serialization %.2f us%n",
+                codecTime / 1e3 / n, javaTime / 1e3 / n);
+        assertTrue(javaTime >= 5 * codecTime);
+    }
+}
@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/** A line-level three-way merge of two versions of a file that share a
+ *  base version, in the manner of diff3. Each side is matched against
+ *  the base with Diff. Base lines matched on both sides are stable and
+ *  split the files into chunks; a chunk changed on only one side, or
+ *  changed the same way on both, takes that change, and a chunk changed
+ *  differently on both sides becomes a conflict holding just the two
+ *  versions of that chunk. Apart from the two diffs, the merge is one
+ *  linear pass over the files.
+ *  @author Abdumijit A. Dolkun
+ */
+public class ContentMerge {
+
+    /** Lines of the base, current and given versions. */
+    private final List<String> _base, _curr, _given;
+
+    /** Line of the current version matched with each base line, or -1. */
+    private final int[] _matchCurr;
+
+    /** Line of the given version matched with each base line, or -1. */
+    private final int[] _matchGiven;
+
+    /** Merged contents. */
+    private final StringBuilder _result = new StringBuilder();
+
+    /** True if some chunk was changed differently on both sides. */
+    private boolean _conflict;
+
+    /** ContentMerge class constructor. Merges the changes from BASE to
+     * CURR and from BASE to GIVEN.
+     * @param base contents of the common ancestor, or null if it had none
+     * @param curr contents in the current branch
+     * @param given contents in the given branch
+     * */
+    public ContentMerge(byte[] base, byte[] curr, byte[] given) {
+        _base = UnifiedDiff.lines(base);
+        _curr = UnifiedDiff.lines(curr);
+        _given = UnifiedDiff.lines(given);
+        _matchCurr = matches(_base, _curr);
+        _matchGiven = matches(_base, _given);
+        merge();
+    }
+
+    /** Returns the merged contents, with conflict markers around the
+     * chunks in conflict. Lines hold one byte per char, so the merged
+     * bytes are exactly those of the versions merged.
+     * @return merged file contents
+     * */
+    public byte[] result() {
+        return _result.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns true if the merge left a conflict.
+     * @return whether conflict markers were written
+     * */
+    public boolean hasConflict() {
+        return _conflict;
+    }
+
+    /** Returns the line of OTHER matched with each line of BASE by a
+     * longest common subsequence, or -1 for an unmatched line.
+     * @param base lines of the base version
+     * @param other lines of a changed version
+     * @return matches by base line
+     * */
+    private static int[] matches(List<String> base, List<String> other) {
+        int[] result = new int[base.size()];
+        Arrays.fill(result, -1);
+        Diff diff = new Diff();
+        diff.setSequences(base, other);
+        int[] common = diff.commonSubsequence();
+        for (int k = 0; k < common.length; k += 3) {
+            for (int i = 0; i < common[k + 2]; i += 1) {
+                result[common[k] + i] = common[k + 1] + i;
+            }
+        }
+        return result;
+    }
+
+    /** Walks the three versions, copying stable runs and merging each
+     * chunk between them. */
+    private void merge() {
+        int o = 0, a = 0, b = 0;
+        while (o < _base.size() || a < _curr.size() || b < _given.size()) {
+            while (o < _base.size() && _matchCurr[o] == a
+                   && _matchGiven[o] == b) {
+                _result.append(_base.get(o));
+                o += 1;
+                a += 1;
+                b += 1;
+            }
+            int next = o;
+            while (next < _base.size()
+                   && (_matchCurr[next] < 0 || _matchGiven[next] < 0)) {
+                next += 1;
+            }
+            int nextA = next < _base.size() ? _matchCurr[next] : _curr.size();
+            int nextB = next < _base.size() ? _matchGiven[next] : _given.size();
+            chunk(o, next, a, nextA, b, nextB);
+            o = next;
+            a = nextA;
+            b = nextB;
+        }
+    }
+
+    /** Merges the chunk of base lines O0 .. O1-1, current lines A0 .. A1-1
+     * and given lines B0 .. B1-1.
+     * @param o0 first base line
+     * @param o1 base line after the chunk
+     * @param a0 first current line
+     * @param a1 current line after the chunk
+     * @param b0 first given line
+     * @param b1 given line after the chunk
+     * */
+    private void chunk(int o0, int o1, int a0, int a1, int b0, int b1) {
+        List<String> base = _base.subList(o0, o1);
+        List<String> curr = _curr.subList(a0, a1);
+        List<String> given = _given.subList(b0, b1);
+        if (curr.equals(base) || curr.equals(given)) {
+            append(given);
+        } else if (given.equals(base)) {
+            append(curr);
+        } else {
+            _conflict = true;
+            _result.append("<<<<<<< HEAD\n");
+            append(curr);
+            endLine();
+            _result.append("=======\n");
+            append(given);
+            endLine();
+            _result.append(">>>>>>>\n");
+        }
+    }
+
+    /** Appends LINES to the result.
+     * @param lines lines to copy
+     * */
+    private void append(List<String> lines) {
+        for (String line : lines) {
+            _result.append(line);
+        }
+    }
+
+    /** Ends the last line of the result if it lacks a newline, so that a
+     * conflict marker starts a line of its own. */
+    private void endLine() {
+        int n = _result.length();
+        if (n > 0 && _result.charAt(n - 1) != '\n') {
+            _result.append('\n');
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Tests of the line-level three-way merge.
+ *  @author Abdumijit A. Dolkun
+ */
+public class ContentMergeTest {
+
+    /** Returns the bytes of TEXT, one per char.
+     * @param text text whose chars are all below 256
+     * @return bytes of TEXT
+     * */
+    private static byte[] raw(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Bytes that are not valid UTF-8, like a lone 0xE9, survive a clean
+     * merge unchanged. */
+    @Test
+    public void keepsInvalidUtf8() {
+        ContentMerge merge = new ContentMerge(raw("caf\u00e9\nb\nc\n"),
+                raw("caf\u00e9\nb\nC\n"), raw("CAF\u00e9\nb\nc\n"));
+        assertFalse(merge.hasConflict());
+        assertArrayEquals(raw("CAF\u00e9\nb\nC\n"), merge.result());
+    }
+
+    /** Lines differing only in bytes that are not valid UTF-8 are
+     * different lines, so an edit between them is kept. */
+    @Test
+    public void editsBetweenInvalidBytes() {
+        ContentMerge merge = new ContentMerge(raw("a\nb\n\u00e9\n"),
+                raw("a\nb\n\u00e8\n"), raw("A\nb\n\u00e9\n"));
+        assertFalse(merge.hasConflict());
+        assertArrayEquals(raw("A\nb\n\u00e8\n"), merge.result());
+    }
+
+    /** A diff shows the bytes of the files, not replacement chars. */
+    @Test
+    public void diffKeepsBytes() {
+        byte[] diff = UnifiedDiff.format("f.txt", raw("\u00e9\n"),
+                raw("\u00e8\n"), Diff.Algorithm.MYERS);
+        assertArrayEquals(raw("diff --git a/f.txt b/f.txt\n"
+                + "--- a/f.txt\n+++ b/f.txt\n@@ -1 +1 @@\n"
+                + "-\u00e9\n+\u00e8\n"), diff);
+    }
+
+    /** Returns the merge of BASE, CURR and GIVEN as text.
+     * @param base base contents, or null
+     * @param curr current contents
+     * @param given given contents
+     * @return merge
+     * */
+    private static ContentMerge merge(String base, String curr,
+                                      String given) {
+        return new ContentMerge(base == null ? null : raw(base), raw(curr),
+                raw(given));
+    }
+
+    /** Edits in different chunks are both taken. */
+    @Test
+    public void mergesSeparateChunks() {
+        ContentMerge merge = merge("a\nb\nc\nd\ne\n", "a\nB\nc\nd\ne\n",
+                "a\nb\nc\nD\ne\nf\n");
+        assertFalse(merge.hasConflict());
+        assertArrayEquals(raw("a\nB\nc\nD\ne\nf\n"), merge.result());
+    }
+
+    /** The same change made on both sides is taken once. */
+    @Test
+    public void mergesSameChange() {
+        ContentMerge merge = merge("a\nb\nc\n", "a\nx\ny\nc\n",
+                "a\nx\ny\nc\n");
+        assertFalse(merge.hasConflict());
+        assertArrayEquals(raw("a\nx\ny\nc\n"), merge.result());
+    }
+
+    /** Only the chunk changed differently on both sides is put between
+     * conflict markers; the stable lines around it and a clean edit
+     * elsewhere are merged as usual. */
+    @Test
+    public void conflictHoldsOnlyTheChunk() {
+        ContentMerge merge = merge("a\nb\nc\nd\ne\n",
+                "a\nB1\nc\nd\nE\n", "a\nB2\nc\nd\ne\n");
+        assertTrue(merge.hasConflict());
+        assertArrayEquals(raw("a\n<<<<<<< HEAD\nB1\n=======\nB2\n"
+                + ">>>>>>>\nc\nd\nE\n"), merge.result());
+    }
+
+    /** Different insertions at the same place conflict, and so do an
+     * edit and a deletion of the same line. */
+    @Test
+    public void conflictsOnInsertionsAndDeletions() {
+        ContentMerge insert = merge("a\nb\n", "a\nx\nb\n", "a\ny\nb\n");
+        assertTrue(insert.hasConflict());
+        assertArrayEquals(raw("a\n<<<<<<< HEAD\nx\n=======\ny\n"
+                + ">>>>>>>\nb\n"), insert.result());
+        ContentMerge delete = merge("a\nb\nc\n", "a\nc\n", "a\nB\nc\n");
+        assertTrue(delete.hasConflict());
+        assertArrayEquals(raw("a\n<<<<<<< HEAD\n=======\nB\n"
+                + ">>>>>>>\nc\n"), delete.result());
+    }
+
+    /** A file added on both sides conflicts as a whole unless both added
+     * the same contents, and a last line without a newline still leaves
+     * each marker on a line of its own. */
+    @Test
+    public void mergesWithoutBase() {
+        ContentMerge same = merge(null, "x\n", "x\n");
+        assertFalse(same.hasConflict());
+        assertArrayEquals(raw("x\n"), same.result());
+        ContentMerge different = merge(null, "x", "y");
+        assertTrue(different.hasConflict());
+        assertArrayEquals(raw("<<<<<<< HEAD\nx\n=======\ny\n>>>>>>>\n"),
+                different.result());
+    }
+
+    /** Returns random lines drawn from a few distinct ones.
+     * @param random source of the lines
+     * @return text
+     * */
+    private static String text(Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int n = random.nextInt(12); n > 0; n -= 1) {
+            result.append((char) ('a' + random.nextInt(4))).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** When one side is unchanged, the merge is the other side, without
+     * conflict. */
+    @Test
+    public void oneSidedChangesAreTaken() {
+        Random random = new Random(23);
+        for (int n = 0; n < 1000; n += 1) {
+            String base = text(random);
+            String other = text(random);
+            ContentMerge curr = merge(base, other, base);
+            assertFalse(curr.hasConflict());
+            assertArrayEquals(raw(other), curr.result());
+            ContentMerge given = merge(base, base, other);
+            assertFalse(given.hasConflict());
+            assertArrayEquals(raw(other), given.result());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/** A long-lived process that runs gitlet commands for the repository in
+ *  its working directory, so that a run of commands pays for JVM startup,
+ *  class loading and compilation once, and keeps the commit and object
+ *  caches between commands. It listens on a Unix domain socket in
+ *  the .gitlet folder and serves one command at a time. A request is the
+ *  argument vector of Main, each argument followed by a NUL byte, ended
+ *  by shutting down the sending side of the connection; the reply is the
+ *  output of the command, ended by closing the connection. Main forwards
+ *  every command to a running daemon, and any client that can speak to a
+ *  Unix socket, such as nc -NU, can do the same.
+ *  @author Abdumijit A. Dolkun
+ */
+public class Daemon {
+
+    /** Socket file the daemon listens on. */
+    static final File SOCKET_FILE = Utils.join(Repo.GITLET_FOLDER,
+            "daemon.sock");
+
+    /** Operand of the daemon command that stops a running daemon. */
+    private static final String STOP = "stop";
+
+    /** True while the daemon is running a command. */
+    private static volatile boolean _serving;
+
+    /** Thrown by Main.exit to end a command run by the daemon. */
+    static class Exit extends RuntimeException {
+        /** Exit class constructor. */
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Returns true if this process is a daemon running a command.
+     * @return whether a command is being served
+     * */
+    static boolean serving() {
+        return _serving;
+    }
+
+    /** Runs the daemon command: with no operand, serves commands until
+     * stopped; with the operand stop, stops the running daemon.
+     * @param args command-line arguments, starting with daemon
+     * */
+    public static void start(String... args) {
+        if (args.length == 2 && args[1].equals(STOP)) {
+            stop();
+        } else if (args.length != 1) {
+            System.out.println("Incorrect Operands");
+            Main.exit();
+        } else {
+            serve();
+        }
+    }
+
+    /** Forwards ARGS to a running daemon and copies its reply to the
+     * standard output.
+     * @param args command-line arguments
+     * @return false if there is no daemon and the command must be run
+     *         in this process
+     * */
+    public static boolean forward(String... args) {
+        if (_serving || args[0].equals("daemon")) {
+            return false;
+        }
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try (channel) {
+            send(channel, args);
+            Channels.newInputStream(channel).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Lost connection to the daemon.");
+        }
+        return true;
+    }
+
+    /** Asks the running daemon to stop and waits until it has. */
+    private static void stop() {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            System.out.println("No daemon is running.");
+            Main.exit();
+        }
+        try (channel) {
+            send(channel, "daemon", STOP);
+            Channels.newInputStream(channel).transferTo(System.out);
+        } catch (IOException excp) {
+            throw Utils.error("Lost connection to the daemon.");
+        }
+    }
+
+    /** Serves commands until a stop request arrives, then prints the
+     * hit and miss counts of the caches it kept warm. A socket file left
+     * behind by a daemon that died is replaced. */
+    private static void serve() {
+        SocketChannel running = connect();
+        if (running != null) {
+            close(running);
+            System.out.println("A daemon is already running.");
+            Main.exit();
+        }
+        SOCKET_FILE.delete();
+        Runtime.getRuntime().addShutdownHook(new Thread(SOCKET_FILE::delete));
+        try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    String[] args = receive(client);
+                    if (args.length == 2 && args[0].equals("daemon")
+                            && args[1].equals(STOP)) {
+                        break;
+                    }
+                    run(args, Channels.newOutputStream(client));
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+            System.out.println("Commit cache: " + RepoCommand.COMMIT_CACHE);
+            System.out.println("Object cache: "
+                    + Repo.BLOB_STORE.getCache());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot listen on %s.", SOCKET_FILE.getName());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Runs the command ARGS with its output sent to OUT. The mapped
+     * pack and commit graph are dropped first, since another process may
+     * have changed the repository since the last command. Main reports a
+     * GitletException to the client as it does on the command line; any
+     * other exception is a bug, and its stack trace is sent to the client.
+     * An Error is not caught, so it ends the daemon.
+     * @param args command-line arguments
+     * @param out destination of the output
+     * */
+    private static void run(String[] args, OutputStream out) {
+        PrintStream console = System.out;
+        PrintStream stream = new PrintStream(new BufferedOutputStream(out),
+                false, StandardCharsets.UTF_8);
+        Repo.PACK.reload();
+        Repo.GRAPH.reload();
+        System.setOut(stream);
+        _serving = true;
+        try {
+            Main.main(args);
+        } catch (Exit excp) {
+            return;
+        } catch (Exception excp) {
+            excp.printStackTrace(stream);
+        } finally {
+            _serving = false;
+            stream.flush();
+            System.setOut(console);
+        }
+    }
+
+    /** Returns a connection to the running daemon.
+     * @return open channel, or null if no daemon is listening
+     * */
+    private static SocketChannel connect() {
+        if (!SOCKET_FILE.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(
+                    UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Sends the request ARGS over CHANNEL and shuts down its sending
+     * side.
+     * @param channel open connection
+     * @param args command-line arguments
+     * @throws IOException if the connection fails
+     * */
+    private static void send(SocketChannel channel, String... args)
+            throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        for (String arg : args) {
+            request.write(arg.getBytes(StandardCharsets.UTF_8));
+            request.write(0);
+        }
+        OutputStream out = Channels.newOutputStream(channel);
+        out.write(request.toByteArray());
+        out.flush();
+        channel.shutdownOutput();
+    }
+
+    /** Reads a request from CHANNEL.
+     * @param channel open connection
+     * @return command-line arguments
+     * @throws IOException if the connection fails
+     * */
+    private static String[] receive(SocketChannel channel)
+            throws IOException {
+        InputStream in = Channels.newInputStream(channel);
+        byte[] request = in.readAllBytes();
+        ArrayList<String> args = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < request.length; i += 1) {
+            if (request[i] == 0) {
+                args.add(new String(request, start, i - start,
+                        StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /** Closes CHANNEL, ignoring errors.
+     * @param channel open connection
+     * */
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+}
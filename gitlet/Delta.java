@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/** Copy/insert deltas between two byte sequences, used by the packfile to
+ *  store similar blob versions against each other. A delta is the varint
+ *  sizes of the base and the result followed by a sequence of COPY
+ *  (offset, length) operations out of the base and INSERT (length, bytes)
+ *  operations of literal data.
+ *  @author Abdumijit A. Dolkun
+ */
+public class Delta {
+
+    /** Operation code that copies a range of the base. */
+    private static final int COPY = 1;
+
+    /** Operation code that inserts literal bytes. */
+    private static final int INSERT = 2;
+
+    /** Width of the base blocks that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Maximum number of base positions remembered per block hash. */
+    private static final int MAX_CHAIN = 8;
+
+    /** Returns a delta that turns BASE into TARGET.
+     * @param base base contents
+     * @param target target contents
+     * @return encoded delta
+     * */
+    public static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, int[]> index = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            int h = hash(base, i);
+            int[] chain = index.get(h);
+            if (chain == null) {
+                index.put(h, new int[] {i});
+            } else if (chain.length < MAX_CHAIN) {
+                int[] longer = new int[chain.length + 1];
+                System.arraycopy(chain, 0, longer, 0, chain.length);
+                longer[chain.length] = i;
+                index.put(h, longer);
+            }
+        }
+
+        int literal = 0;
+        int pos = 0;
+        while (pos + BLOCK <= target.length) {
+            int[] chain = index.get(hash(target, pos));
+            int bestOff = -1, bestLen = 0;
+            if (chain != null) {
+                for (int off : chain) {
+                    int len = matchLength(base, off, target, pos);
+                    if (len > bestLen) {
+                        bestOff = off;
+                        bestLen = len;
+                    }
+                }
+            }
+            if (bestLen < BLOCK) {
+                pos += 1;
+                continue;
+            }
+            while (bestOff > 0 && pos > literal
+                    && base[bestOff - 1] == target[pos - 1]) {
+                bestOff -= 1;
+                pos -= 1;
+                bestLen += 1;
+            }
+            insert(out, target, literal, pos);
+            out.write(COPY);
+            writeVarint(out, bestOff);
+            writeVarint(out, bestLen);
+            pos += bestLen;
+            literal = pos;
+        }
+        insert(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. Every operand is
+     * checked against the base, the delta and the result size, so a
+     * damaged delta is reported rather than read out of bounds.
+     * @param base base contents
+     * @param delta encoded delta
+     * @return target contents
+     * */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseSize = readVarint(delta, pos);
+        int resultSize = readVarint(delta, pos);
+        if (baseSize != base.length) {
+            throw Utils.error("Corrupt pack delta: base size mismatch.");
+        }
+        byte[] result = new byte[resultSize];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int off = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                if (off > base.length - len || len > resultSize - written) {
+                    throw Utils.error("Corrupt pack delta: bad copy.");
+                }
+                System.arraycopy(base, off, result, written, len);
+                written += len;
+            } else if (op == INSERT) {
+                int len = readVarint(delta, pos);
+                if (len > delta.length - pos[0]
+                        || len > resultSize - written) {
+                    throw Utils.error("Corrupt pack delta: bad insert.");
+                }
+                System.arraycopy(delta, pos[0], result, written, len);
+                pos[0] += len;
+                written += len;
+            } else {
+                throw Utils.error("Corrupt pack delta: bad operation.");
+            }
+        }
+        if (written != resultSize) {
+            throw Utils.error("Corrupt pack delta: result size mismatch.");
+        }
+        return result;
+    }
+
+    /** Writes an INSERT of TARGET[FROM .. TO - 1] to OUT, if non-empty.
+     * @param out delta being built
+     * @param target target contents
+     * @param from first literal byte
+     * @param to end of the literal bytes
+     * */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns the length of the common run of A from I and B from J.
+     * @param a first array
+     * @param i start in A
+     * @param b second array
+     * @param j start in B
+     * @return matching length
+     * */
+    private static int matchLength(byte[] a, int i, byte[] b, int j) {
+        int len = 0;
+        while (i + len < a.length && j + len < b.length
+                && a[i + len] == b[j + len]) {
+            len += 1;
+        }
+        return len;
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at POS.
+     * @param data contents
+     * @param pos start of the block
+     * @return block hash
+     * */
+    private static int hash(byte[] data, int pos) {
+        int h = 0;
+        for (int i = pos; i < pos + BLOCK; i += 1) {
+            h = h * 31 + data[i];
+        }
+        return h;
+    }
+
+    /** Writes the unsigned varint VALUE to OUT.
+     * @param out destination
+     * @param value non-negative value
+     * */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads an unsigned varint from DATA at POS[0], advancing POS[0].
+     * @param data encoded bytes
+     * @param pos one-element cursor
+     * @return decoded value, which fits in a non-negative int
+     * */
+    static int readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (pos[0] >= data.length || shift > 28) {
+                throw Utils.error("Corrupt pack delta: bad number.");
+            }
+            b = data[pos[0]++] & 0xff;
+            result |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (result > Integer.MAX_VALUE) {
+            throw Utils.error("Corrupt pack delta: bad number.");
+        }
+        return (int) result;
+    }
+}
@@ -0,0 +1,132 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Tests of the copy/insert deltas of the packfile.
+ *  @author Abdumijit A. Dolkun
+ */
+public class DeltaTest {
+
+    /** Returns a copy of DATA with a few random insertions, deletions and
+     * replacements.
+     * @param data original bytes
+     * @param random source of the edits
+     * @return edited bytes
+     * */
+    private static byte[] edit(byte[] data, Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = 0;
+        for (int n = random.nextInt(6); n >= 0 && pos < data.length;
+             n -= 1) {
+            int next = pos + random.nextInt(data.length - pos + 1);
+            out.write(data, pos, next - pos);
+            byte[] inserted = new byte[random.nextInt(40)];
+            random.nextBytes(inserted);
+            out.writeBytes(inserted);
+            pos = Math.min(data.length, next + random.nextInt(40));
+        }
+        out.write(data, pos, data.length - pos);
+        return out.toByteArray();
+    }
+
+    /** Applying the delta from a base to a target gives back the target,
+     * and the delta between similar versions is much smaller than the
+     * target. */
+    @Test
+    public void roundTrips() {
+        Random random = new Random(3);
+        for (int n = 0; n < 200; n += 1) {
+            byte[] base = new byte[random.nextInt(20000)];
+            random.nextBytes(base);
+            byte[] target = edit(base, random);
+            byte[] delta = Delta.create(base, target);
+            assertArrayEquals(target, Delta.apply(base, delta));
+            if (base.length > 10000) {
+                assertTrue(delta.length < target.length / 4);
+            }
+        }
+    }
+
+    /** Empty bases and targets and unrelated contents round-trip too. */
+    @Test
+    public void edgeCases() {
+        byte[] empty = new byte[0];
+        byte[] text = "some text that is longer than a block".getBytes();
+        byte[] other = new byte[1000];
+        new Random(5).nextBytes(other);
+        byte[][] cases = {empty, text, other};
+        for (byte[] base : cases) {
+            for (byte[] target : cases) {
+                assertArrayEquals(target,
+                        Delta.apply(base, Delta.create(base, target)));
+            }
+        }
+    }
+
+    /** Returns a delta of the given bytes.
+     * @param bytes unsigned values of the bytes
+     * @return delta
+     * */
+    private static byte[] delta(int... bytes) {
+        byte[] result = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[i] = (byte) bytes[i];
+        }
+        return result;
+    }
+
+    /** A copy reaching past the end of the base is rejected. */
+    @Test(expected = GitletException.class)
+    public void copyOutOfBase() {
+        Delta.apply(new byte[4], delta(4, 4, 1, 2, 4));
+    }
+
+    /** A copy writing past the declared result size is rejected. */
+    @Test(expected = GitletException.class)
+    public void copyOutOfResult() {
+        Delta.apply(new byte[4], delta(4, 2, 1, 0, 4));
+    }
+
+    /** An insert longer than the rest of the delta is rejected. */
+    @Test(expected = GitletException.class)
+    public void insertOutOfDelta() {
+        Delta.apply(new byte[4], delta(4, 3, 2, 3, 'a'));
+    }
+
+    /** A delta ending inside a number is rejected. */
+    @Test(expected = GitletException.class)
+    public void truncatedNumber() {
+        Delta.apply(new byte[4], delta(4, 0x80));
+    }
+
+    /** A number too large for an int is rejected. */
+    @Test(expected = GitletException.class)
+    public void oversizedNumber() {
+        Delta.apply(new byte[4],
+                delta(4, 0xff, 0xff, 0xff, 0xff, 0xff, 0x01));
+    }
+
+    /** Every truncation of a valid delta is rejected rather than read out
+     * of bounds. */
+    @Test
+    public void truncationsAreReported() {
+        Random random = new Random(9);
+        byte[] base = new byte[3000];
+        random.nextBytes(base);
+        byte[] target = edit(base, random);
+        byte[] delta = Delta.create(base, target);
+        for (int n = 0; n < delta.length; n += 1) {
+            try {
+                Delta.apply(base, Arrays.copyOf(delta, n));
+                fail("truncated to " + n);
+            } catch (GitletException excp) {
+                assertTrue(excp.getMessage().startsWith("Corrupt pack"));
+            }
+        }
+    }
+}
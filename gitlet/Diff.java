@@ -1,34 +1,50 @@
 package gitlet;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Collection;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 
-import static java.lang.Math.max;
-
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
- *  next.
+ *  next.  Lines are interned as int tokens when the sequences are set, so
+ *  that comparisons are integer equality.  The default algorithm is Myers'
+ *  O((N+M)D) greedy diff with its linear-space refinement, which finds a
+ *  longest common subsequence using O(N+M) memory.  The histogram algorithm
+ *  instead anchors on the rarest lines that the sequences share and is
+ *  often easier to read for source code; it falls back to Myers on regions
+ *  with no rare common line.
  *  @author P. N. Hilfinger */
 public class Diff {
 
+    /** Algorithms for matching the two sequences. */
+    public enum Algorithm {
+        /** Myers' algorithm: a longest common subsequence. */
+        MYERS,
+        /** Histogram diff: matches anchored on the rarest common lines. */
+        HISTOGRAM
+    }
+
+    /** Lines occurring more often than this in a region are never used as
+     *  histogram anchors. */
+    private static final int MAX_CHAIN = 64;
+
     /** Set the sequences currently being compared to the contents
      *  of SEQ1 and SEQ2 (as delivered by their iterators). */
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
         _lines1 = new ArrayList<>(seq1);
         _lines2 = new ArrayList<>(seq2);
-        _lls = null;
-        _todo = null;
+        intern();
     }
 
     /** Set the sequences currently being compared to the contents
@@ -48,8 +64,14 @@ public class Diff {
                  excp) {
             _lines2 = Collections.emptyList();
         }
-        _lls = null;
-        _todo = null;
+        intern();
+    }
+
+    /** Set the algorithm used by commonSubsequence and diffs to ALGORITHM.
+     *  The default is MYERS. */
+    public void setAlgorithm(Algorithm algorithm) {
+        _algorithm = algorithm;
+        _common = null;
     }
 
     /** Return the first of the current sequences. */
@@ -76,120 +98,48 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
-        if (_lls == null) {
-            _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
-            for (int[] row : _lls) {
-                Arrays.fill(row, -1);
-            }
-        }
-        if (k1 == 0 || k2 == 0
-            || k1 > _lines1.size() || k2 > _lines2.size()) {
+        k1 = Math.min(k1, _tokens1.length);
+        k2 = Math.min(k2, _tokens2.length);
+        if (k1 <= 0 || k2 <= 0) {
             return 0;
-        } else if (_lls[k1][k2] == -1) {
-            initStack();
-            push(k1, k2, 0);
-            while (!empty()) {
-                pop();
-                if (_llsTop1 == 0 || _llsTop2 == 0) {
-                    _lls[_llsTop1][_llsTop2] = 0;
-                } else if (_lls[_llsTop1][_llsTop2] != -1) {
-                    continue;
-                } else {
-                    switch (_llsState) {
-                    case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                            .equals(_lines2.get(_llsTop2 - 1))) {
-                            push(_llsTop1, _llsTop2, 4);
-                            push(_llsTop1 - 1, _llsTop2 - 1, 0);
-                        } else {
-                            push(_llsTop1, _llsTop2, 1);
-                        }
-                        continue;
-                    case 1:
-                        push(_llsTop1, _llsTop2, 2);
-                        push(_llsTop1, _llsTop2 - 1, 0);
-                        continue;
-                    case 2:
-                        push(_llsTop1, _llsTop2, 3);
-                        push(_llsTop1 - 1, _llsTop2, 0);
-                        continue;
-                    case 3:
-                        _lls[_llsTop1][_llsTop2]
-                            = max(_lls[_llsTop1][_llsTop2 - 1],
-                                  _lls[_llsTop1 - 1][_llsTop2]);
-                        continue;
-                    case 4:
-                        _lls[_llsTop1][_llsTop2]
-                            = _lls[_llsTop1 - 1][_llsTop2 - 1] + 1;
-                        continue;
-                    default:
-                        assert false;
-                    }
-                }
-            }
         }
-        return _lls[k1][k2];
+        Runs runs = new Runs();
+        myers(0, k1, 0, k2, runs);
+        return runs.total();
     }
 
     /** Return the length of the longest common subsequence of the current
      *  data subsequences. */
     public int lls() {
         checkData();
-        return lls(_lines1.size(), _lines2.size());
+        return lls(_tokens1.length, _tokens2.length);
     }
 
     /** Return true iff the sequences currently being compared have identical
      *  content. */
     public boolean sequencesEqual() {
         checkData();
-        if (_lines1.size() != _lines2.size()) {
-            return false;
-        }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
-    }
-
-    /** Return an array containing the int values of the items in LIST. */
-    private int[] toIntArr(Collection<Integer> list) {
-        int[] result = new int[list.size()];
-        int i;
-        i = 0;
-        for (int x : list) {
-            result[i] = x;
-            i += 1;
-        }
-        return result;
+        return Arrays.equals(_tokens1, _tokens2);
     }
 
     /** Return largest common subsequence of the sequences being compared as
      *  a sequence of 3n values s01, s02, L0, s11, s12, L1,..., where
      *  si1 is the starting line position of the subsequence in the
      *  first file (0-based), si2 is the starting position in the second
-     *  file, and Li is the length of the subsequence. */
+     *  file, and Li is the length of the subsequence.  Under the histogram
+     *  algorithm the subsequence is common but not always longest. */
     public int[] commonSubsequence() {
-        ArrayDeque<Integer> resultList = new ArrayDeque<>();
-
-        int k1, k2;
-        k1 = _lines1.size(); k2 = _lines2.size();
-        while (k1 > 0 && k2 > 0) {
-            int ls = lls(k1, k2);
-            if (lls(k1 - 1, k2) == ls) {
-                k1 -= 1;
-            } else if (lls(k1, k2 - 1) == ls) {
-                k2 -= 1;
+        checkData();
+        if (_common == null) {
+            Runs runs = new Runs();
+            if (_algorithm == Algorithm.HISTOGRAM) {
+                histogram(runs);
             } else {
-                int L;
-                L = 1;
-                while (k1 > L && k2 > L && lls(k1 - L - 1, k2 - L) != ls - L
-                       && lls(k1 - L, k2 - L  - 1) != ls - L) {
-                    L += 1;
-                }
-                resultList.offerFirst(L);
-                resultList.offerFirst(k2 - L);
-                resultList.offerFirst(k1 - L);
-                k1 -= L; k2 -= L;
+                myers(0, _tokens1.length, 0, _tokens2.length, runs);
             }
+            _common = runs.toArray();
         }
-        return toIntArr(resultList);
+        return _common.clone();
     }
 
     /** Return the edit that converts the first of the sequences being compared
@@ -221,7 +171,11 @@ public class Diff {
             result.add(e2);
             result.add(_lines2.size() - e2);
         }
-        return toIntArr(result);
+        int[] edits = new int[result.size()];
+        for (int i = 0; i < edits.length; i += 1) {
+            edits[i] = result.get(i);
+        }
+        return edits;
     }
 
     /** Raise an exception if there are no current data sequences for
@@ -232,45 +186,263 @@ public class Diff {
         }
     }
 
-    /** Initialize work stack for lls. */
-    private void initStack() {
-        _todo = new int[6 * (_lines1.size() +  _lines2.size() + 1)];
-        _todop = 0;
+    /** Replace the current lines by int tokens, equal lines getting equal
+     *  tokens, and size the work arrays. */
+    private void intern() {
+        HashMap<String, Integer> ids = new HashMap<>();
+        _tokens1 = intern(_lines1, ids);
+        _tokens2 = intern(_lines2, ids);
+        _numTokens = ids.size();
+        int width = 2 * (_tokens1.length + _tokens2.length) + 4;
+        _forward = new int[width];
+        _backward = new int[width];
+        _common = null;
     }
 
-    /** Push an item on the work stack for computing lls(I1, I2). STATE
-     *  indicates which inner recursive calls have happened so far for these
-     *  arguments. */
-    private void push(int i1, int i2, int state) {
-        _todo[_todop + 1] = i1;
-        _todo[_todop + 2] = i2;
-        _todo[_todop] = state;
-        _todop += 3;
+    /** Return the tokens of LINES, adding new lines to IDS. */
+    private static int[] intern(List<String> lines,
+                                HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            result[i] = id;
+            i += 1;
+        }
+        return result;
     }
 
-    /** Pop an item from the work stack. */
-    private void pop() {
-        _todop -= 3;
-        _llsTop1 = _todo[_todop + 1]; _llsTop2 = _todo[_todop + 2];
-        _llsState = _todo[_todop];
+    /** Add to RUNS, in order, the runs of a longest common subsequence of
+     *  _tokens1[A0 .. A1-1] and _tokens2[B0 .. B1-1].  Common prefixes and
+     *  suffixes are matched directly; the rest is split at a middle snake
+     *  and each side is solved in turn. */
+    private void myers(int a0, int a1, int b0, int b1, Runs runs) {
+        int prefix = 0;
+        while (a0 + prefix < a1 && b0 + prefix < b1
+               && _tokens1[a0 + prefix] == _tokens2[b0 + prefix]) {
+            prefix += 1;
+        }
+        runs.add(a0, b0, prefix);
+        a0 += prefix;
+        b0 += prefix;
+        int suffix = 0;
+        while (a1 - suffix > a0 && b1 - suffix > b0
+               && _tokens1[a1 - suffix - 1] == _tokens2[b1 - suffix - 1]) {
+            suffix += 1;
+        }
+        a1 -= suffix;
+        b1 -= suffix;
+        if (a0 < a1 && b0 < b1) {
+            int[] snake = middleSnake(a0, a1, b0, b1);
+            myers(a0, snake[0], b0, snake[1], runs);
+            runs.add(snake[0], snake[1], snake[2] - snake[0]);
+            myers(snake[2], a1, snake[3], b1, runs);
+        }
+        runs.add(a1, b1, suffix);
     }
 
-    /** Return true iff the work stack is empty. */
-    private boolean empty() {
-        return _todop <= 0;
+    /** Return the middle snake of an optimal edit path from (A0, B0) to
+     *  (A1, B1) as {x0, y0, x1, y1}: the diagonal run from (x0, y0) to
+     *  (x1, y1) where the forward and backward searches meet.  Both
+     *  searches keep only the furthest point reached on each diagonal,
+     *  so the memory used is linear. */
+    private int[] middleSnake(int a0, int a1, int b0, int b1) {
+        int n = a1 - a0, m = b1 - b0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int off = max + 1;
+        int[] vf = _forward, vb = _backward;
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1])) {
+                    x = vf[off + k + 1];
+                } else {
+                    x = vf[off + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x, y0 = y;
+                while (x < n && y < m && _tokens1[a0 + x] == _tokens2[b0 + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[off + k] = x;
+                int r = delta - k;
+                if (odd && r >= -(d - 1) && r <= d - 1
+                    && x + vb[off + r] >= n) {
+                    return new int[] {a0 + x0, b0 + y0, a0 + x, b0 + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && vb[off + k - 1] < vb[off + k + 1])) {
+                    x = vb[off + k + 1];
+                } else {
+                    x = vb[off + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x, y0 = y;
+                while (x < n && y < m
+                       && _tokens1[a1 - x - 1] == _tokens2[b1 - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[off + k] = x;
+                int f = delta - k;
+                if (!odd && f >= -d && f <= d && x + vf[off + f] >= n) {
+                    return new int[] {a1 - x, b1 - y, a1 - x0, b1 - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Add to RUNS, in order, the runs matched by histogram diff over the
+     *  whole of the current sequences.  Regions are kept on an explicit
+     *  stack, so that long inputs cannot overflow the call stack. */
+    private void histogram(Runs runs) {
+        int[] counts = new int[_numTokens];
+        int[] first = new int[_numTokens];
+        int[] next = new int[_tokens1.length];
+        ArrayDeque<int[]> todo = new ArrayDeque<>();
+        todo.push(new int[] {0, _tokens1.length, 0, _tokens2.length, -1});
+        while (!todo.isEmpty()) {
+            int[] task = todo.pop();
+            if (task[4] >= 0) {
+                runs.add(task[0], task[2], task[4]);
+                continue;
+            }
+            int a0 = task[0], a1 = task[1], b0 = task[2], b1 = task[3];
+            int[] anchor = anchor(a0, a1, b0, b1, counts, first, next);
+            if (anchor == null) {
+                myers(a0, a1, b0, b1, runs);
+                continue;
+            }
+            int len = anchor[2];
+            todo.push(new int[] {anchor[0] + len, a1, anchor[1] + len, b1,
+                                 -1});
+            todo.push(new int[] {anchor[0], 0, anchor[1], 0, len});
+            todo.push(new int[] {a0, anchor[0], b0, anchor[1], -1});
+        }
+    }
+
+    /** Return the best histogram anchor in _tokens1[A0 .. A1-1] and
+     *  _tokens2[B0 .. B1-1] as {x, y, length}: a maximal common run whose
+     *  rarest line occurs least often in the first region, the longest
+     *  such run winning ties.  Return null if the regions share no line
+     *  occurring at most MAX_CHAIN times.  COUNTS, FIRST and NEXT are work
+     *  arrays, and COUNTS is left all zero. */
+    private int[] anchor(int a0, int a1, int b0, int b1,
+                         int[] counts, int[] first, int[] next) {
+        for (int i = a1 - 1; i >= a0; i -= 1) {
+            int t = _tokens1[i];
+            next[i] = counts[t] == 0 ? -1 : first[t];
+            first[t] = i;
+            counts[t] += 1;
+        }
+        int[] best = null;
+        int bestCount = MAX_CHAIN + 1;
+        for (int j = b0; j < b1; j += 1) {
+            int c = counts[_tokens2[j]];
+            if (c == 0 || c > bestCount || c > MAX_CHAIN) {
+                continue;
+            }
+            int end = j;
+            for (int i = first[_tokens2[j]]; i >= 0; i = next[i]) {
+                int x = i, y = j;
+                while (x > a0 && y > b0 && _tokens1[x - 1] == _tokens2[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                }
+                int len = i - x;
+                int rarest = c;
+                while (x + len < a1 && y + len < b1
+                       && _tokens1[x + len] == _tokens2[y + len]) {
+                    rarest = Math.min(rarest, counts[_tokens1[x + len]]);
+                    len += 1;
+                }
+                if (best == null || rarest < bestCount
+                    || (rarest == bestCount && len > best[2])) {
+                    best = new int[] {x, y, len};
+                    bestCount = rarest;
+                }
+                end = Math.max(end, y + len - 1);
+            }
+            j = end;
+        }
+        for (int i = a0; i < a1; i += 1) {
+            counts[_tokens1[i]] = 0;
+        }
+        return best;
+    }
+
+    /** Common runs collected in order, each stored as start in the first
+     *  sequence, start in the second and length.  A run that continues the
+     *  previous one is merged into it. */
+    private static class Runs {
+        /** Add the run of LEN items starting at S1 and S2. */
+        void add(int s1, int s2, int len) {
+            if (len == 0) {
+                return;
+            }
+            if (_size > 0 && _data[_size - 3] + _data[_size - 1] == s1
+                && _data[_size - 2] + _data[_size - 1] == s2) {
+                _data[_size - 1] += len;
+                _total += len;
+                return;
+            }
+            if (_size + 3 > _data.length) {
+                _data = Arrays.copyOf(_data, 2 * _data.length);
+            }
+            _data[_size] = s1;
+            _data[_size + 1] = s2;
+            _data[_size + 2] = len;
+            _size += 3;
+            _total += len;
+        }
+
+        /** Return the total length of the runs. */
+        int total() {
+            return _total;
+        }
+
+        /** Return the runs as s01, s02, L0, s11, s12, L1, .... */
+        int[] toArray() {
+            return Arrays.copyOf(_data, _size);
+        }
+
+        /** Run triples. */
+        private int[] _data = new int[48];
+        /** Number of ints used in _data. */
+        private int _size;
+        /** Sum of the run lengths. */
+        private int _total;
     }
 
     /** The sequences being compared. */
     private List<String> _lines1, _lines2;
 
-    /** The memo table for longest common subsequence.  _lls[a][b] contains the
-     *  length of the longest common sequence of the prefixes of the current
-     *  data sequences of lengths a and b, or -1 if not calculated. */
-    private int[][] _lls;
+    /** The tokens of _lines1 and _lines2. */
+    private int[] _tokens1, _tokens2;
+
+    /** Number of distinct tokens. */
+    private int _numTokens;
+
+    /** Furthest x reached on each diagonal by the forward and backward
+     *  searches of middleSnake. */
+    private int[] _forward, _backward;
+
+    /** Algorithm used by commonSubsequence. */
+    private Algorithm _algorithm = Algorithm.MYERS;
 
-    /** A stack structure used by lls. */
-    private int[] _todo;
-    /** Structure for the work queue used by lls. */
-    private int _todop, _llsState, _llsTop1, _llsTop2;
+    /** The result of commonSubsequence, or null if not computed. */
+    private int[] _common;
 
 }
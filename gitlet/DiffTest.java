@@ -0,0 +1,171 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Tests of the line diff.
+ *  @author Abdumijit A. Dolkun
+ */
+public class DiffTest {
+
+    /** Returns the length of the longest common subsequence of the first
+     * K1 items of A and the first K2 items of B, by the quadratic table
+     * that Diff used before Myers' algorithm.
+     * @param a first sequence
+     * @param b second sequence
+     * @param k1 length of the prefix of A
+     * @param k2 length of the prefix of B
+     * @return LCS length
+     * */
+    private static int tableLcs(List<String> a, List<String> b,
+                                int k1, int k2) {
+        int[][] lls = new int[k1 + 1][k2 + 1];
+        for (int i = 1; i <= k1; i += 1) {
+            for (int j = 1; j <= k2; j += 1) {
+                lls[i][j] = a.get(i - 1).equals(b.get(j - 1))
+                        ? lls[i - 1][j - 1] + 1
+                        : Math.max(lls[i - 1][j], lls[i][j - 1]);
+            }
+        }
+        return lls[k1][k2];
+    }
+
+    /** Returns a random sequence of up to MAX lines drawn from ALPHABET
+     * distinct lines.
+     * @param random source of the lines
+     * @param max most lines
+     * @param alphabet number of distinct lines
+     * @return lines
+     * */
+    private static List<String> lines(Random random, int max,
+                                      int alphabet) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int n = random.nextInt(max + 1); n > 0; n -= 1) {
+            result.add("line " + random.nextInt(alphabet));
+        }
+        return result;
+    }
+
+    /** Checks that the runs of DIFF are in order, do not overlap and
+     * match equal lines, and that its edits turn the first sequence into
+     * the second.
+     * @param diff diff with its sequences set
+     * @return total length of the runs
+     * */
+    private static int checkRuns(Diff diff) {
+        int[] common = diff.commonSubsequence();
+        int e1 = 0, e2 = 0, total = 0;
+        for (int k = 0; k < common.length; k += 3) {
+            assertTrue(common[k] >= e1 && common[k + 1] >= e2);
+            assertTrue(common[k + 2] > 0);
+            for (int i = 0; i < common[k + 2]; i += 1) {
+                assertEquals(diff.get1(common[k] + i),
+                        diff.get2(common[k + 1] + i));
+            }
+            e1 = common[k] + common[k + 2];
+            e2 = common[k + 1] + common[k + 2];
+            total += common[k + 2];
+        }
+        assertTrue(e1 <= diff.sequence1().size());
+        assertTrue(e2 <= diff.sequence2().size());
+
+        ArrayList<String> result = new ArrayList<>();
+        int[] edits = diff.diffs();
+        int pos = 0;
+        for (int k = 0; k < edits.length; k += 4) {
+            result.addAll(diff.sequence1().subList(pos, edits[k]));
+            result.addAll(diff.sequence2().subList(edits[k + 2],
+                    edits[k + 2] + edits[k + 3]));
+            pos = edits[k] + edits[k + 1];
+        }
+        result.addAll(diff.sequence1().subList(pos,
+                diff.sequence1().size()));
+        assertEquals(diff.sequence2(), result);
+        return total;
+    }
+
+    /** Myers' algorithm finds common subsequences as long as those of the
+     * quadratic table, for whole sequences and for prefixes. */
+    @Test
+    public void myersMatchesTable() {
+        Random random = new Random(21);
+        Diff diff = new Diff();
+        for (int n = 0; n < 2000; n += 1) {
+            int alphabet = 1 + random.nextInt(8);
+            List<String> a = lines(random, 40, alphabet);
+            List<String> b = random.nextInt(4) == 0
+                    ? new ArrayList<>(a) : lines(random, 40, alphabet);
+            diff.setSequences(a, b);
+            int expected = tableLcs(a, b, a.size(), b.size());
+            assertEquals(expected, checkRuns(diff));
+            assertEquals(expected, diff.lls());
+            int k1 = random.nextInt(a.size() + 1);
+            int k2 = random.nextInt(b.size() + 1);
+            assertEquals(tableLcs(a, b, k1, k2), diff.lls(k1, k2));
+        }
+    }
+
+    /** Long files with a few edits are compared without the quadratic
+     * table. */
+    @Test
+    public void longFiles() {
+        Random random = new Random(4);
+        ArrayList<String> a = new ArrayList<>();
+        for (int i = 0; i < 100000; i += 1) {
+            a.add("line " + i);
+        }
+        ArrayList<String> b = new ArrayList<>(a);
+        int removed = 0;
+        for (int n = 0; n < 50; n += 1) {
+            b.remove(random.nextInt(b.size()));
+            removed += 1;
+            b.add(random.nextInt(b.size()), "new " + n);
+        }
+        Diff diff = new Diff();
+        diff.setSequences(a, b);
+        assertEquals(a.size() - removed, checkRuns(diff));
+    }
+
+    /** Histogram diff anchors on a line that occurs once in each file,
+     * where Myers' algorithm matches the more numerous brace lines. */
+    @Test
+    public void histogramAnchorsOnRareLines() {
+        List<String> a = Arrays.asList("{", "}", "{", "}", "unique",
+                "{", "}");
+        List<String> b = Arrays.asList("unique", "{", "}", "{", "}",
+                "{", "}");
+        Diff diff = new Diff();
+        diff.setSequences(a, b);
+        assertEquals(6, checkRuns(diff));
+        diff.setAlgorithm(Diff.Algorithm.HISTOGRAM);
+        assertArrayEquals(new int[] {4, 0, 3}, diff.commonSubsequence());
+        checkRuns(diff);
+    }
+
+    /** Histogram diff returns valid runs in order of both sequences, never
+     * longer than a longest common subsequence, and matches identical
+     * sequences whole. */
+    @Test
+    public void histogramRunsInOrder() {
+        Random random = new Random(22);
+        Diff diff = new Diff();
+        diff.setAlgorithm(Diff.Algorithm.HISTOGRAM);
+        for (int n = 0; n < 2000; n += 1) {
+            int alphabet = 1 + random.nextInt(100);
+            List<String> a = lines(random, 80, alphabet);
+            List<String> b = n % 10 == 0
+                    ? new ArrayList<>(a) : lines(random, 80, alphabet);
+            diff.setSequences(a, b);
+            int total = checkRuns(diff);
+            assertTrue(total <= tableLcs(a, b, a.size(), b.size()));
+            if (a.equals(b)) {
+                assertEquals(a.size(), total);
+            }
+        }
+    }
+}
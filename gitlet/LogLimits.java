@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+/** The limits given to log and global-log: at most -n COUNT commits,
+ *  none made before --since DATE, and only those whose message contains
+ *  --grep TEXT. A commit is only read once its time, taken from the
+ *  commit graph, has passed the --since limit.
+ *  @author Abdumijit A. Dolkun
+ */
+public class LogLimits {
+
+    /** Offset that commit timestamps are written with. */
+    private static final ZoneOffset OFFSET = ZoneOffset.ofHours(-8);
+
+    /** Number of commits still to be printed. */
+    private int _remaining = Integer.MAX_VALUE;
+
+    /** Earliest commit time printed, in seconds since the epoch. */
+    private long _since = Long.MIN_VALUE;
+
+    /** Text that printed commit messages contain, or null. */
+    private String _grep;
+
+    /** LogLimits class constructor. Prints a message and exits if the
+     * options are malformed.
+     * @param options command-line options after the command name
+     * */
+    public LogLimits(String... options) {
+        try {
+            for (int i = 0; i < options.length; i += 1) {
+                switch (options[i]) {
+                case "-n":
+                    _remaining = Integer.parseInt(options[++i]);
+                    break;
+                case "--since":
+                    _since = parseTime(options[++i]);
+                    break;
+                case "--grep":
+                    _grep = options[++i];
+                    break;
+                default:
+                    incorrectOperands();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException
+                 | DateTimeParseException excp) {
+            incorrectOperands();
+        }
+        if (_remaining < 0) {
+            incorrectOperands();
+        }
+    }
+
+    /** Returns true once COUNT commits have been printed.
+     * @return whether to stop
+     * */
+    public boolean done() {
+        return _remaining <= 0;
+    }
+
+    /** Returns true if a commit made at TIME is too old to print.
+     * @param time commit time in seconds since the epoch
+     * @return whether the commit is before --since
+     * */
+    public boolean tooOld(long time) {
+        return time < _since;
+    }
+
+    /** Prints the commit at POS in GRAPH to OUT if it is within the
+     * limits.
+     * @param graph commit graph
+     * @param pos graph position of the commit
+     * @param out destination
+     * */
+    public void print(CommitGraph graph, int pos, PrintWriter out) {
+        if (done() || tooOld(graph.time(pos))) {
+            return;
+        }
+        Commit commit = RepoCommand.readCommit(graph.id(pos));
+        if (_grep != null && !commit.getMessage().contains(_grep)) {
+            return;
+        }
+        RepoCommand.printLog(commit, out);
+        _remaining -= 1;
+    }
+
+    /** Returns the time named by TEXT, a date or a date and time in ISO
+     * form, in the offset commit timestamps are written with.
+     * @param text date given on the command line
+     * @return seconds since the epoch
+     * */
+    private static long parseTime(String text) {
+        if (text.contains("T")) {
+            return LocalDateTime.parse(text).toEpochSecond(OFFSET);
+        }
+        return LocalDate.parse(text).atStartOfDay().toEpochSecond(OFFSET);
+    }
+
+    /** Prints the message for malformed options and exits. */
+    private static void incorrectOperands() {
+        System.out.println("Incorrect Operands");
+        Main.exit();
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Abdumijit A. Dolkun
@@ -8,18 +9,30 @@ import java.io.IOException;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... A command that fails with a
+     *  GitletException prints its message and ends like any other. */
     public static void main(String... args) throws IOException {
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            exit();
+        }
+    }
+
+    /** Runs the command ARGS, forwarding it to the daemon if one is
+     *  running. */
+    private static void run(String... args) throws IOException {
         if (args.length == 0) {
             commandError();
         } else if (args[0].equals("init")) {
             initCheck();
         } else if (!Repo.GITLET_FOLDER.exists()) {
             initError();
-        } else {
+        } else if (!Daemon.forward(args)) {
             switch (args[0]) {
             case "add":
-                RepoCommand.add(args[1]);
+                RepoCommand.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 RepoCommand.commit(args[1]);
@@ -28,13 +41,21 @@ public class Main {
                 RepoCommand.remove(args[1]);
                 break;
             case "log":
-                RepoCommand.log();
+                RepoCommand.log(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "global-log":
-                RepoCommand.gLog();
+                RepoCommand.gLog(
+                        Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "find":
-                RepoCommand.find(args[1]);
+                if (args.length == 3 && args[1].equals("--grep")) {
+                    RepoCommand.findGrep(args[2]);
+                } else {
+                    RepoCommand.find(args[1]);
+                }
+                break;
+            case "diff":
+                RepoCommand.diff(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "status":
                 RepoCommand.status();
@@ -54,38 +75,55 @@ public class Main {
             case "merge":
                 RepoCommand.merge(args[1]);
                 break;
+            case "gc":
+            case "repack":
+                RepoCommand.gc();
+                break;
+            case "daemon":
+                Daemon.start(args);
+                break;
             default:
                 notFound();
             }
         }
     }
+
+    /** Ends the current command. A command served by the daemon ends by
+     *  unwinding back to the daemon instead of stopping the JVM. */
+    public static void exit() {
+        if (Daemon.serving()) {
+            throw new Daemon.Exit();
+        }
+        System.exit(0);
+    }
+
     public static void commandError() {
         System.out.println("Please enter a command.");
-        System.exit(0);
+        exit();
     }
 
     public static void initCheck() throws IOException {
         if (Repo.GITLET_FOLDER.exists()) {
             System.out.println("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            System.exit(0);
+            exit();
         }
         RepoCommand.init();
     }
 
     public static void initError() {
         System.out.println("Not in an initialized Gitlet directory.");
-        System.exit(0);
+        exit();
     }
     public static void checkout(String[] args) {
         int argLength = args.length;
         if (argLength != 2 && argLength != 3 && argLength != 4) {
             System.out.println("Incorrect Operands");
-            System.exit(0);
+            exit();
         } else if ((argLength == 3 && !args[1].equals("--"))
                 || (argLength == 4 && !args[2].equals("--"))) {
             System.out.println("Incorrect Operands");
-            System.exit(0);
+            exit();
         } else {
             RepoCommand.checkout(args);
         }
@@ -93,6 +131,6 @@ public class Main {
 
     public static void notFound() {
         System.out.println("No command with that name exists.");
-        System.exit(0);
+        exit();
     }
 }
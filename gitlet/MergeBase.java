@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Finds the merge bases of two commits: their common ancestors that are
+ *  not ancestors of another common ancestor. Both sides are walked
+ *  together through the commit graph from a priority queue ordered by
+ *  generation number, so a commit is always visited after all of its
+ *  descendants that are visited, and each commit is visited at most
+ *  once. The walk stops as soon as every commit left in the queue lies
+ *  below a merge base already found. No commit is read.
+ *  @author Abdumijit A. Dolkun
+ */
+public class MergeBase {
+
+    /** Flag of a commit reachable from the first commit. */
+    private static final int PARENT1 = 1;
+
+    /** Flag of a commit reachable from the second commit. */
+    private static final int PARENT2 = 2;
+
+    /** Flag of a commit below a merge base already found. */
+    private static final int STALE = 4;
+
+    /** Graph being walked. */
+    private final CommitGraph _graph;
+
+    /** Flags of every commit seen so far, by graph position. */
+    private final HashMap<Integer, Integer> _flags = new HashMap<>();
+
+    /** Commits waiting to be visited, newest generation first. */
+    private final PriorityQueue<Integer> _queue;
+
+    /** Number of commits in _queue that are not STALE. */
+    private int _live;
+
+    /** MergeBase class constructor.
+     * @param graph commit graph to walk
+     * */
+    private MergeBase(CommitGraph graph) {
+        _graph = graph;
+        _queue = new PriorityQueue<>(
+                Comparator.comparingInt(graph::generation).reversed()
+                        .thenComparing(Comparator.naturalOrder()));
+    }
+
+    /** Returns the merge bases of the commits ONE and TWO, best first. A
+     * commit that is an ancestor of the other is itself the merge base.
+     * Criss-cross histories have more than one merge base; they are
+     * ordered by how few parent links separate them from ONE.
+     * @param one commitID of the first commit
+     * @param two commitID of the second commit
+     * @return commitIDs of the merge bases, nearest to ONE first
+     * */
+    public static List<String> find(String one, String two) {
+        CommitGraph graph = Repo.GRAPH;
+        int first = graph.find(one);
+        int second = graph.find(two);
+        if (first == CommitGraph.NONE || second == CommitGraph.NONE) {
+            throw Utils.error("Commit missing from the commit graph.");
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (int pos : new MergeBase(graph).walk(first, second)) {
+            result.add(graph.id(pos));
+        }
+        return result;
+    }
+
+    /** Paints the history of ONE and TWO down to their merge bases.
+     * @param one graph position of the first commit
+     * @param two graph position of the second commit
+     * @return graph positions of the merge bases, nearest to ONE first
+     * */
+    private List<Integer> walk(int one, int two) {
+        ArrayList<Integer> result = new ArrayList<>();
+        if (one == two) {
+            result.add(one);
+            return result;
+        }
+        push(one, PARENT1);
+        push(two, PARENT2);
+        while (_live > 0) {
+            int pos = _queue.poll();
+            int flags = _flags.get(pos);
+            if ((flags & STALE) == 0) {
+                _live -= 1;
+            }
+            int sides = flags & (PARENT1 | PARENT2);
+            if (sides == (PARENT1 | PARENT2) && (flags & STALE) == 0) {
+                result.add(pos);
+                flags |= STALE;
+            }
+            push(_graph.parent(pos), flags);
+            push(_graph.mergeParent(pos), flags);
+        }
+        if (result.size() > 1) {
+            result.sort(Comparator.comparingInt(distances(one)::get));
+        }
+        return result;
+    }
+
+    /** Returns the number of parent links between ONE and each commit
+     * seen by the walk, following parents before merge parents. Every
+     * commit on a path from ONE to a merge base has been seen.
+     * @param one graph position of the first commit
+     * @return distance from ONE by graph position
+     * */
+    private HashMap<Integer, Integer> distances(int one) {
+        HashMap<Integer, Integer> result = new HashMap<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        result.put(one, 0);
+        queue.add(one);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            for (int parent : new int[] {_graph.parent(pos),
+                                         _graph.mergeParent(pos)}) {
+                if (parent != CommitGraph.NONE && _flags.containsKey(parent)
+                        && !result.containsKey(parent)) {
+                    result.put(parent, result.get(pos) + 1);
+                    queue.add(parent);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Adds the flags FLAGS to the commit at POS and queues it if it was
+     * not seen before. A commit is only reached from its children, which
+     * all have higher generations, so a commit that has been seen is
+     * still in the queue and only its flags need updating.
+     * @param pos graph position of the commit, or NONE
+     * @param flags flags to add
+     * */
+    private void push(int pos, int flags) {
+        if (pos == CommitGraph.NONE) {
+            return;
+        }
+        Integer old = _flags.get(pos);
+        int newFlags = old == null ? flags : old | flags;
+        if (old == null) {
+            _queue.add(pos);
+        } else if (newFlags == old) {
+            return;
+        } else if ((old & STALE) == 0) {
+            _live -= 1;
+        }
+        _flags.put(pos, newFlags);
+        if ((newFlags & STALE) == 0) {
+            _live += 1;
+        }
+    }
+}
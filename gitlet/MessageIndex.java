@@ -0,0 +1,491 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** An index of commit messages, kept up to date as commits are made.
+ *  The message log holds the ID and message of every commit, appended in
+ *  commit order; an entry is named by its offset in the log. The keys of
+ *  an entry are a hash of its whole message and every three-byte
+ *  sequence (trigram) of its message. Postings of (key, offset) pairs
+ *  are kept in one of BUCKETS bucket files chosen by the key. A bucket
+ *  holds a run of postings sorted by key and offset, found by binary
+ *  search, followed by a tail of postings appended since; once the tail
+ *  reaches TAIL_LIMIT postings, the bucket is folded into one sorted run.
+ *  A lookup thus reads a few pages of one bucket. An exact message is
+ *  found through its hash key; a substring is found by intersecting the
+ *  postings of its trigrams. Candidates are confirmed against the
+ *  message log, and no commit is ever read.
+ *  @author Abdumijit A. Dolkun
+ */
+public class MessageIndex {
+
+    /** Number of bucket files. */
+    private static final int BUCKETS = 256;
+
+    /** Width of a posting: key and log offset. */
+    private static final int POSTING = 4 + 8;
+
+    /** Magic number at the head of a bucket file. */
+    private static final int MAGIC = 0x474D4931;
+
+    /** Width of the header of a bucket file: magic and sorted count. */
+    private static final int HEADER = 4 + 4;
+
+    /** Most postings in the unsorted tail of a bucket. */
+    static final int TAIL_LIMIT = 4096;
+
+    /** Bit set in the key of a whole message, which no trigram key has. */
+    private static final int MESSAGE_KEY = 0x40000000;
+
+    /** Folder holding the message log and the bucket files. */
+    private final File _folder;
+
+    /** Most postings in the unsorted tail of a bucket of this index. */
+    private final int _tailLimit;
+
+    /** MessageIndex class constructor.
+     * @param folder folder holding the index files
+     * */
+    public MessageIndex(File folder) {
+        this(folder, TAIL_LIMIT);
+    }
+
+    /** MessageIndex class constructor with a given bound on the tails.
+     * @param folder folder holding the index files
+     * @param tailLimit most postings in the unsorted tail of a bucket
+     * */
+    MessageIndex(File folder, int tailLimit) {
+        _folder = folder;
+        _tailLimit = tailLimit;
+    }
+
+    /** Returns the message log.
+     * @return log file
+     * */
+    private File logFile() {
+        return Utils.join(_folder, "log");
+    }
+
+    /** Returns the number of the bucket of KEY.
+     * @param key posting key
+     * @return bucket number
+     * */
+    private static int bucket(int key) {
+        return ((key * 0x9E3779B1) >>> 24) % BUCKETS;
+    }
+
+    /** Returns the file of bucket BUCKET.
+     * @param bucket bucket number
+     * @return bucket file
+     * */
+    private File bucketFile(int bucket) {
+        return Utils.join(_folder, String.format("%02x", bucket));
+    }
+
+    /** Adds the commit ID with message MESSAGE to the index, folding the
+     * buckets whose tails grow past the limit.
+     * @param id SHA1 ID of the commit
+     * @param message commit message
+     * */
+    public void add(String id, String message) {
+        _folder.mkdirs();
+        long offset = logFile().length();
+        append(logFile(), entry(id, message));
+
+        HashMap<Integer, ByteArrayOutputStream> postings = new HashMap<>();
+        for (int key : keys(message)) {
+            ByteBuffer posting = ByteBuffer.allocate(POSTING);
+            posting.putInt(key).putLong(offset);
+            postings.computeIfAbsent(bucket(key),
+                    k -> new ByteArrayOutputStream())
+                    .write(posting.array(), 0, POSTING);
+        }
+        for (Map.Entry<Integer, ByteArrayOutputStream> bucket
+                : postings.entrySet()) {
+            File file = bucketFile(bucket.getKey());
+            if (!file.isFile()) {
+                append(file, ByteBuffer.allocate(HEADER).putInt(MAGIC)
+                        .putInt(0).array());
+            }
+            append(file, bucket.getValue().toByteArray());
+            Bucket contents = new Bucket(file);
+            if (contents._count - contents._sorted > _tailLimit) {
+                Postings all = new Postings();
+                all.addAll(contents);
+                all.write(file);
+            }
+        }
+    }
+
+    /** Replaces the index with one holding exactly COMMITS. The log and
+     * the sorted postings are built in memory, and each file is written
+     * once.
+     * @param commits every commit in the repository
+     * */
+    public void rebuild(List<Commit> commits) {
+        File[] files = _folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        _folder.mkdirs();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Postings[] buckets = new Postings[BUCKETS];
+        for (Commit commit : commits) {
+            long offset = log.size();
+            log.writeBytes(entry(commit.getCommitID(), commit.getMessage()));
+            for (int key : keys(commit.getMessage())) {
+                int bucket = bucket(key);
+                if (buckets[bucket] == null) {
+                    buckets[bucket] = new Postings();
+                }
+                buckets[bucket].add(key, offset);
+            }
+        }
+        Utils.writeContents(logFile(), log.toByteArray());
+        for (int bucket = 0; bucket < BUCKETS; bucket += 1) {
+            if (buckets[bucket] != null) {
+                buckets[bucket].write(bucketFile(bucket));
+            }
+        }
+    }
+
+    /** Returns the message log entry of the commit ID with message
+     * MESSAGE.
+     * @param id SHA1 ID of the commit
+     * @param message commit message
+     * @return encoded entry
+     * */
+    private static byte[] entry(String id, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(entry)) {
+            out.write(Pack.toBytes(id));
+            out.writeInt(text.length);
+            out.write(text);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot encode message entry.");
+        }
+        return entry.toByteArray();
+    }
+
+    /** Returns the posting keys of MESSAGE: its trigrams and the key of
+     * the whole message.
+     * @param message commit message
+     * @return distinct keys
+     * */
+    private static TreeSet<Integer> keys(String message) {
+        TreeSet<Integer> keys =
+                trigrams(message.getBytes(StandardCharsets.UTF_8));
+        keys.add(messageKey(message));
+        return keys;
+    }
+
+    /** Returns the IDs of the commits whose message is exactly MESSAGE.
+     * @param message commit message
+     * @return sorted commitIDs
+     * */
+    public List<String> exact(String message) {
+        TreeSet<String> result = new TreeSet<>();
+        for (long offset : postings(messageKey(message))) {
+            Entry entry = read(offset);
+            if (entry._message.equals(message)) {
+                result.add(entry._id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the IDs of the commits whose message contains PATTERN.
+     * Patterns of three bytes or more are looked up by their trigrams;
+     * shorter ones are matched against the whole message log.
+     * @param pattern substring to search for
+     * @return sorted commitIDs
+     * */
+    public List<String> grep(String pattern) {
+        TreeSet<String> result = new TreeSet<>();
+        TreeSet<Integer> keys =
+                trigrams(pattern.getBytes(StandardCharsets.UTF_8));
+        if (keys.isEmpty()) {
+            for (Entry entry : readAll()) {
+                if (entry._message.contains(pattern)) {
+                    result.add(entry._id);
+                }
+            }
+            return new ArrayList<>(result);
+        }
+        HashSet<Long> candidates = null;
+        for (int key : keys) {
+            HashSet<Long> offsets = postings(key);
+            if (candidates != null) {
+                offsets.retainAll(candidates);
+            }
+            candidates = offsets;
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+        for (long offset : candidates) {
+            Entry entry = read(offset);
+            if (entry._message.contains(pattern)) {
+                result.add(entry._id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the log offsets posted under KEY: a binary search of the
+     * sorted run of its bucket, then a scan of the bucket's tail.
+     * @param key posting key
+     * @return log offsets
+     * */
+    private HashSet<Long> postings(int key) {
+        HashSet<Long> result = new HashSet<>();
+        File file = bucketFile(bucket(key));
+        if (!file.isFile()) {
+            return result;
+        }
+        Bucket bucket = new Bucket(file);
+        int lo = 0;
+        int hi = bucket._sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bucket.key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < bucket._sorted && bucket.key(i) == key;
+             i += 1) {
+            result.add(bucket.offset(i));
+        }
+        for (int i = bucket._sorted; i < bucket._count; i += 1) {
+            if (bucket.key(i) == key) {
+                result.add(bucket.offset(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the message log entry at OFFSET.
+     * @param offset offset of the entry in the log
+     * @return log entry
+     * */
+    private Entry read(long offset) {
+        try (RandomAccessFile log = new RandomAccessFile(logFile(), "r")) {
+            log.seek(offset);
+            byte[] raw = new byte[Pack.ID_BYTES];
+            log.readFully(raw);
+            byte[] text = new byte[log.readInt()];
+            log.readFully(text);
+            return new Entry(Pack.toHex(raw),
+                    new String(text, StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt message index.");
+        }
+    }
+
+    /** Returns every entry of the message log, oldest first.
+     * @return log entries
+     * */
+    private List<Entry> readAll() {
+        ArrayList<Entry> result = new ArrayList<>();
+        if (!logFile().isFile()) {
+            return result;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Utils.readContents(logFile()));
+        byte[] raw = new byte[Pack.ID_BYTES];
+        while (data.hasRemaining()) {
+            data.get(raw);
+            byte[] text = new byte[data.getInt()];
+            data.get(text);
+            result.add(new Entry(Pack.toHex(raw),
+                    new String(text, StandardCharsets.UTF_8)));
+        }
+        return result;
+    }
+
+    /** Returns the key of the whole message MESSAGE.
+     * @param message commit message
+     * @return posting key
+     * */
+    private static int messageKey(String message) {
+        int hash = Integer.parseUnsignedInt(
+                Utils.sha1(message).substring(0, 7), 16);
+        return MESSAGE_KEY | hash;
+    }
+
+    /** Returns the keys of the distinct trigrams of TEXT. The key of a
+     * trigram is its three bytes, so trigram keys never collide.
+     * @param text UTF-8 bytes
+     * @return trigram keys
+     * */
+    private static TreeSet<Integer> trigrams(byte[] text) {
+        TreeSet<Integer> result = new TreeSet<>();
+        for (int i = 0; i + 3 <= text.length; i += 1) {
+            result.add((text[i] & 0xff) << 16 | (text[i + 1] & 0xff) << 8
+                    | (text[i + 2] & 0xff));
+        }
+        return result;
+    }
+
+    /** Appends DATA to FILE, creating it if needed.
+     * @param file file to extend
+     * @param data bytes to append
+     * */
+    private static void append(File file, byte[] data) {
+        try {
+            Files.write(file.toPath(), data, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write message index.");
+        }
+    }
+
+    /** The postings of a bucket file, mapped into memory. A file without
+     * a header, written before buckets were sorted, is all tail. */
+    private static class Bucket {
+        /** Contents of the bucket file. */
+        private final ByteBuffer _data;
+        /** Offset of the first posting. */
+        private final int _start;
+        /** Number of postings in the sorted run. */
+        private final int _sorted;
+        /** Number of postings. */
+        private final int _count;
+
+        /** Bucket class constructor.
+         * @param file bucket file
+         * */
+        Bucket(File file) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                _data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read message index.");
+            }
+            if (_data.limit() >= HEADER && _data.getInt(0) == MAGIC) {
+                _start = HEADER;
+                _sorted = _data.getInt(4);
+            } else {
+                _start = 0;
+                _sorted = 0;
+            }
+            _count = (_data.limit() - _start) / POSTING;
+        }
+
+        /** Returns the key of posting I.
+         * @param i posting number
+         * @return posting key
+         * */
+        int key(int i) {
+            return _data.getInt(_start + i * POSTING);
+        }
+
+        /** Returns the log offset of posting I.
+         * @param i posting number
+         * @return log offset
+         * */
+        long offset(int i) {
+            return _data.getLong(_start + i * POSTING + 4);
+        }
+    }
+
+    /** A growing list of postings of one bucket, added in log order. */
+    private static class Postings {
+        /** Keys of the postings. */
+        private int[] _keys = new int[16];
+        /** Log offsets of the postings. */
+        private long[] _offsets = new long[16];
+        /** Number of postings. */
+        private int _size;
+
+        /** Adds the posting of KEY at log offset OFFSET.
+         * @param key posting key
+         * @param offset log offset
+         * */
+        void add(int key, long offset) {
+            if (_size == _keys.length) {
+                _keys = Arrays.copyOf(_keys, 2 * _size);
+                _offsets = Arrays.copyOf(_offsets, 2 * _size);
+            }
+            _keys[_size] = key;
+            _offsets[_size] = offset;
+            _size += 1;
+        }
+
+        /** Adds every posting of BUCKET, sorted run first.
+         * @param bucket bucket read from disk
+         * */
+        void addAll(Bucket bucket) {
+            for (int i = 0; i < bucket._count; i += 1) {
+                add(bucket.key(i), bucket.offset(i));
+            }
+        }
+
+        /** Writes the postings to FILE as one sorted run. Postings were
+         * added in log order, so sorting by key and then by the order of
+         * addition sorts them by key and offset.
+         * @param file bucket file to replace
+         * */
+        void write(File file) {
+            long[] order = new long[_size];
+            for (int i = 0; i < _size; i += 1) {
+                order[i] = (long) _keys[i] << 32 | i;
+            }
+            Arrays.sort(order);
+            ByteBuffer out = ByteBuffer.allocate(HEADER + _size * POSTING);
+            out.putInt(MAGIC).putInt(_size);
+            for (long entry : order) {
+                int i = (int) entry;
+                out.putInt(_keys[i]).putLong(_offsets[i]);
+            }
+            try {
+                File temp = File.createTempFile("bucket", null,
+                        file.getParentFile());
+                Files.write(temp.toPath(), out.array());
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write message index.");
+            }
+        }
+    }
+
+    /** One entry of the message log. */
+    private static class Entry {
+        /** SHA1 ID of the commit. */
+        private final String _id;
+        /** Commit message. */
+        private final String _message;
+
+        /** Entry class constructor.
+         * @param id SHA1 ID of the commit
+         * @param message commit message
+         * */
+        Entry(String id, String message) {
+            _id = id;
+            _message = message;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/** Tests of the commit message index.
+ *  @author Abdumijit A. Dolkun
+ */
+public class MessageIndexTest {
+
+    /** ID of a tree, which is never read by these tests. */
+    private static final String TREE =
+            "0123456789abcdef0123456789abcdef01234567";
+
+    /** Words that messages are made of. */
+    private static final String[] WORDS = {"fix", "add", "merge", "the",
+        "parser", "index", "bug", "test", "docs", "again"};
+
+    /** Returns the IDs of the COMMITS whose message contains PATTERN, or
+     * equals it if EXACT.
+     * @param commits commits to search
+     * @param pattern text to find
+     * @param exact whether the whole message must match
+     * @return sorted commitIDs
+     * */
+    private static List<String> scan(List<Commit> commits, String pattern,
+                                     boolean exact) {
+        TreeSet<String> result = new TreeSet<>();
+        for (Commit commit : commits) {
+            if (exact ? commit.getMessage().equals(pattern)
+                    : commit.getMessage().contains(pattern)) {
+                result.add(commit.getCommitID());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Lookups agree with a scan of every message, both while postings
+     * are appended and folded one commit at a time and after a rebuild
+     * writes every bucket sorted. A small tail limit makes every bucket
+     * fold many times. */
+    @Test
+    public void lookupsMatchScan() throws IOException {
+        File folder = Files.createTempDirectory("messages").toFile();
+        MessageIndex index = new MessageIndex(folder, 16);
+        Random random = new Random(61);
+        ArrayList<Commit> commits = new ArrayList<>();
+        Commit parent = new Commit("initial commit", TREE, null, null);
+        commits.add(parent);
+        index.add(parent.getCommitID(), parent.getMessage());
+        for (int n = 0; n < 3000; n += 1) {
+            StringBuilder message = new StringBuilder();
+            for (int w = random.nextInt(4); w >= 0; w -= 1) {
+                message.append(WORDS[random.nextInt(WORDS.length)])
+                        .append(' ');
+            }
+            message.append(n % 7);
+            parent = new Commit(message.toString(), TREE, null, parent);
+            commits.add(parent);
+            index.add(parent.getCommitID(), parent.getMessage());
+        }
+        String[] patterns = {"fix the 3", "merge", "bug again", "xyz",
+            "initial commit", "docs 0", "s a"};
+        for (int pass = 0; pass < 2; pass += 1) {
+            for (String pattern : patterns) {
+                assertEquals(pattern, scan(commits, pattern, false),
+                        index.grep(pattern));
+                assertEquals(pattern, scan(commits, pattern, true),
+                        index.exact(pattern));
+            }
+            index.rebuild(commits);
+        }
+    }
+}
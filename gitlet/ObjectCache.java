@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of objects read from the repository, keyed by SHA1 ID and
+ *  bounded by the total weight of its entries, usually their size in
+ *  bytes. The least recently used entries are evicted first, and an
+ *  entry heavier than a tenth of the bound is never cached, so that one
+ *  large object cannot flush everything else. Objects are named by the
+ *  SHA1 of their contents, so an entry never goes stale. Callers must
+ *  not modify the objects they get back. The cache may be used from
+ *  several threads at once.
+ *  @param <V> type of the cached objects
+ *  @author Abdumijit A. Dolkun
+ */
+public class ObjectCache<V> {
+
+    /** Most total weight of the entries. */
+    private final long _capacity;
+
+    /** Entries by ID, least recently used first. */
+    private final LinkedHashMap<String, Entry<V>> _entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total weight of the entries. */
+    private long _weight;
+
+    /** Number of lookups that found their entry. */
+    private long _hits;
+
+    /** Number of lookups that did not. */
+    private long _misses;
+
+    /** ObjectCache class constructor.
+     * @param capacity most total weight of the entries
+     * */
+    public ObjectCache(long capacity) {
+        _capacity = capacity;
+    }
+
+    /** Returns the object with the given ID, or null if it is not cached.
+     * @param id SHA1 ID of the object
+     * @return cached object or null
+     * */
+    public synchronized V get(String id) {
+        Entry<V> entry = _entries.get(id);
+        if (entry == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return entry._value;
+    }
+
+    /** Caches VALUE under ID, evicting the least recently used entries
+     * until the total weight is within the bound.
+     * @param id SHA1 ID of the object
+     * @param value object to cache
+     * @param weight weight of the object, usually its size in bytes
+     * */
+    public synchronized void put(String id, V value, int weight) {
+        if (weight > _capacity / 10 || _entries.containsKey(id)) {
+            return;
+        }
+        _entries.put(id, new Entry<>(value, weight));
+        _weight += weight;
+        Iterator<Map.Entry<String, Entry<V>>> oldest =
+                _entries.entrySet().iterator();
+        while (_weight > _capacity) {
+            _weight -= oldest.next().getValue()._weight;
+            oldest.remove();
+        }
+    }
+
+    /** Returns the number of lookups that found their entry.
+     * @return hit count
+     * */
+    public synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the number of lookups that did not find their entry.
+     * @return miss count
+     * */
+    public synchronized long misses() {
+        return _misses;
+    }
+
+    /** Returns the total weight of the entries.
+     * @return current weight
+     * */
+    public synchronized long weight() {
+        return _weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %d entries, %d bytes",
+                _hits, _misses, _entries.size(), _weight);
+    }
+
+    /** A cached object and its weight.
+     * @param <V> type of the object
+     * */
+    private static class Entry<V> {
+        /** Cached object. */
+        private final V _value;
+        /** Weight of the object. */
+        private final int _weight;
+
+        /** Entry class constructor.
+         * @param value cached object
+         * @param weight weight of the object
+         * */
+        Entry(V value, int weight) {
+            _value = value;
+            _weight = weight;
+        }
+    }
+}
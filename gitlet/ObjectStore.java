@@ -0,0 +1,428 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A content-addressed store of loose objects. Each object is named by
+ *  the SHA1 of its raw bytes, deflate-compressed, and written at most once
+ *  into a two-character fan-out subdirectory of the store folder, so that
+ *  no single directory grows with the number of objects. Objects that
+ *  have been moved into the pack are looked up there.
+ *  Objects of CHUNK_THRESHOLD bytes or more are split by Chunker into
+ *  content-defined chunks, each stored as an object of its own, and the
+ *  object itself is stored as a manifest listing its chunk IDs. Versions
+ *  of a large file then share every chunk their edits did not touch.
+ *  @author Abdumijit A. Dolkun
+ */
+public class ObjectStore {
+
+    /** Length of the fan-out directory prefix of an object ID. */
+    static final int FANOUT = 2;
+
+    /** Size of the buffers used when copying object contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Least size of an object stored as chunks. */
+    static final long CHUNK_THRESHOLD = 2 * Chunker.MAX_SIZE;
+
+    /** Number of chunks written to the store at once, in parallel. */
+    static final int CHUNK_BATCH = 64;
+
+    /** Suffix of the name of a loose chunk manifest. */
+    static final String MANIFEST_SUFFIX = ".chunks";
+
+    /** Most bytes of object contents kept in memory once read. */
+    static final long CACHE_BYTES = 32 << 20;
+
+    /** Root folder of this store. */
+    private final File _folder;
+
+    /** Pack consulted for objects that are not loose. */
+    private final Pack _pack;
+
+    /** Contents of the objects already read, weighed by their size. */
+    private final ObjectCache<byte[]> _cache =
+            new ObjectCache<>(CACHE_BYTES);
+
+    /** ObjectStore class constructor.
+     * @param folder root folder of the loose objects
+     * @param pack pack holding the packed objects
+     * */
+    public ObjectStore(File folder, Pack pack) {
+        _folder = folder;
+        _pack = pack;
+    }
+
+    /** Returns the root folder of this store.
+     * @return store folder
+     * */
+    public File getFolder() {
+        return _folder;
+    }
+
+    /** Returns the loose object file of the given ID.
+     * @param id SHA1 ID of the object
+     * @return fanned-out object file
+     * */
+    public File file(String id) {
+        return Utils.join(_folder, id.substring(0, FANOUT),
+                id.substring(FANOUT));
+    }
+
+    /** Returns the loose chunk manifest file of the given ID.
+     * @param id SHA1 ID of the object
+     * @return fanned-out manifest file
+     * */
+    private File manifestFile(String id) {
+        return Utils.join(_folder, id.substring(0, FANOUT),
+                id.substring(FANOUT) + MANIFEST_SUFFIX);
+    }
+
+    /** Returns true if the object with the given ID is stored, either
+     * loose, as chunks, or packed.
+     * @param id SHA1 ID of the object
+     * @return whether the object exists
+     * */
+    public boolean contains(String id) {
+        return file(id).isFile() || manifestFile(id).isFile()
+                || _pack.contains(id);
+    }
+
+    /** Stores CONTENTS under the SHA1 of its bytes, unless it is already
+     * present.
+     * @param contents raw object contents
+     * @return SHA1 ID of the contents
+     * */
+    public String put(byte[] contents) {
+        String id = Utils.sha1(contents);
+        put(id, contents);
+        return id;
+    }
+
+    /** Stores CONTENTS under the given ID, unless it is already present.
+     * @param id SHA1 ID of the object
+     * @param contents raw object contents
+     * */
+    public void put(String id, byte[] contents) {
+        if (contains(id)) {
+            return;
+        } else if (contents.length >= CHUNK_THRESHOLD) {
+            try {
+                putChunks(id, new ByteArrayInputStream(contents));
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write object %s.", id);
+            }
+            return;
+        }
+        File dest = file(id);
+        dest.getParentFile().mkdirs();
+        File temp = null;
+        try {
+            temp = File.createTempFile("obj", null, dest.getParentFile());
+            try (OutputStream out = new DeflaterOutputStream(
+                    Files.newOutputStream(temp.toPath()))) {
+                out.write(contents);
+            }
+            Files.move(temp.toPath(), dest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw Utils.error("Cannot write object %s.", id);
+        }
+    }
+
+    /** Streams the contents of FILE into the store in one pass over a
+     * FileChannel, hashing and deflating it through a fixed-size buffer,
+     * unless an object with the same contents is already present.
+     * @param file file to store
+     * @return SHA1 ID of the file contents
+     * */
+    public String put(File file) {
+        if (file.length() >= CHUNK_THRESHOLD) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                return putChunks(null, in);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot store %s.", file.getName());
+            }
+        }
+        MessageDigest md = sha1Digest();
+        File temp = null;
+        Deflater deflater = new Deflater();
+        try {
+            _folder.mkdirs();
+            temp = File.createTempFile("obj", null, _folder);
+            try (FileChannel in = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ);
+                 OutputStream out = new DeflaterOutputStream(
+                         Files.newOutputStream(temp.toPath()), deflater,
+                         BUFFER_SIZE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (in.read(buffer) >= 0) {
+                    md.update(buffer.array(), 0, buffer.position());
+                    out.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+            }
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw Utils.error("Cannot store %s.", file.getName());
+        } finally {
+            deflater.end();
+        }
+        String id = Pack.toHex(md.digest());
+        File dest = file(id);
+        try {
+            if (contains(id)) {
+                Files.delete(temp.toPath());
+            } else {
+                dest.getParentFile().mkdirs();
+                Files.move(temp.toPath(), dest.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw Utils.error("Cannot write object %s.", id);
+        }
+        return id;
+    }
+
+    /** Stores the contents of IN as chunks, each unless it is already
+     * present, and then a manifest of their IDs under the SHA1 of the
+     * whole contents. IN is read one chunk at a time, and each batch of
+     * CHUNK_BATCH chunks is written in parallel.
+     * @param id SHA1 ID of the contents, or null if it is not known yet
+     * @param in contents to store
+     * @return SHA1 ID of the contents
+     * */
+    private String putChunks(String id, InputStream in) throws IOException {
+        MessageDigest md = sha1Digest();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        Chunker chunker = new Chunker(in);
+        ArrayList<byte[]> batch = new ArrayList<>();
+        byte[] chunk;
+        do {
+            chunk = chunker.next();
+            if (chunk != null) {
+                md.update(chunk);
+                batch.add(chunk);
+            }
+            if (batch.size() == CHUNK_BATCH || chunk == null) {
+                for (String chunkID : batch.parallelStream()
+                        .map(this::put).toList()) {
+                    manifest.write(Pack.toBytes(chunkID));
+                }
+                batch.clear();
+            }
+        } while (chunk != null);
+        if (id == null) {
+            id = Pack.toHex(md.digest());
+        }
+        if (!contains(id)) {
+            File dest = manifestFile(id);
+            dest.getParentFile().mkdirs();
+            File temp = File.createTempFile("obj", null,
+                    dest.getParentFile());
+            try {
+                Files.write(temp.toPath(), manifest.toByteArray());
+                Files.move(temp.toPath(), dest.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                temp.delete();
+                throw excp;
+            }
+        }
+        return id;
+    }
+
+    /** Returns the chunk manifest of the object ID: the raw IDs of its
+     * chunks, in order.
+     * @param id SHA1 ID of the object
+     * @return manifest, or null if the object is not stored as chunks
+     * */
+    public byte[] manifest(String id) {
+        if (manifestFile(id).isFile()) {
+            return Utils.readContents(manifestFile(id));
+        } else if (!file(id).isFile() && _pack.type(id) == Pack.MANIFEST) {
+            return _pack.get(id);
+        }
+        return null;
+    }
+
+    /** Returns the SHA1 ID FILE would be stored under, reading it in one
+     * pass through a fixed-size buffer.
+     * @param file file to hash
+     * @return SHA1 ID of the file contents
+     * */
+    public static String hash(File file) {
+        MessageDigest md = sha1Digest();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                md.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s.", file.getName());
+        }
+        return Pack.toHex(md.digest());
+    }
+
+    /** Returns the raw contents of the object with the given ID. Objects
+     * already read are returned from the cache, so the result must not be
+     * modified.
+     * @param id SHA1 ID of the object
+     * @return inflated object contents
+     * */
+    public byte[] get(String id) {
+        byte[] contents = _cache.get(id);
+        if (contents == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(id, out);
+            contents = out.toByteArray();
+            _cache.put(id, contents, contents.length);
+        }
+        return contents;
+    }
+
+    /** Returns the cache of object contents.
+     * @return object cache
+     * */
+    public ObjectCache<byte[]> getCache() {
+        return _cache;
+    }
+
+    /** Streams the object with the given ID into DEST, replacing its
+     * contents, without holding the whole object in memory.
+     * @param id SHA1 ID of the object
+     * @param dest file to write
+     * */
+    public void copyTo(String id, File dest) {
+        try (OutputStream out = Files.newOutputStream(dest.toPath())) {
+            copy(id, out);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", dest.getName());
+        }
+    }
+
+    /** Writes the inflated contents of the object ID to OUT. An object
+     * stored as chunks is written one chunk at a time.
+     * @param id SHA1 ID of the object
+     * @param out destination stream
+     * */
+    private void copy(String id, OutputStream out) {
+        byte[] manifest = manifest(id);
+        if (manifest != null) {
+            byte[] raw = new byte[Pack.ID_BYTES];
+            for (int k = 0; k < manifest.length; k += Pack.ID_BYTES) {
+                System.arraycopy(manifest, k, raw, 0, Pack.ID_BYTES);
+                copy(Pack.toHex(raw), out);
+            }
+            return;
+        }
+        try {
+            if (!file(id).isFile() && _pack.copy(id, out)) {
+                return;
+            }
+            try (InputStream in = new InflaterInputStream(
+                    Files.newInputStream(file(id).toPath()))) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s.", id);
+        }
+    }
+
+    /** Returns a fresh SHA1 message digest.
+     * @return SHA1 digest
+     * */
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                    + "SHA-1");
+        }
+    }
+
+    /** Deletes the loose copy or chunk manifest of the object ID, if any.
+     * Its chunks are left in place.
+     * @param id SHA1 ID of the object
+     * */
+    public void removeLoose(String id) {
+        File loose = file(id);
+        loose.delete();
+        manifestFile(id).delete();
+        loose.getParentFile().delete();
+    }
+
+    /** Returns the IDs of all loose objects in this store, sorted. Objects
+     * stored as chunks are not included, but their chunks are.
+     * @return list of object IDs
+     * */
+    public List<String> ids() {
+        return ids("");
+    }
+
+    /** Returns the IDs of all objects with a loose chunk manifest in this
+     * store, sorted.
+     * @return list of object IDs
+     * */
+    public List<String> manifestIds() {
+        return ids(MANIFEST_SUFFIX);
+    }
+
+    /** Returns the IDs of the loose files in this store whose names end
+     * in SUFFIX after the ID, sorted.
+     * @param suffix "" for objects, or MANIFEST_SUFFIX for manifests
+     * @return list of object IDs
+     * */
+    private List<String> ids(String suffix) {
+        ArrayList<String> result = new ArrayList<>();
+        String[] dirs = _folder.list();
+        if (dirs == null) {
+            return result;
+        }
+        Arrays.sort(dirs);
+        for (String dir : dirs) {
+            List<String> names = Utils.plainFilenamesIn(
+                    Utils.join(_folder, dir));
+            if (dir.length() != FANOUT || names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (name.length() == Utils.UID_LENGTH - FANOUT
+                        + suffix.length() && name.endsWith(suffix)) {
+                    result.add(dir + name.substring(0,
+                            Utils.UID_LENGTH - FANOUT));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,666 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A single packfile and its index, read back through memory-mapped
+ *  random access. The packfile holds deflated objects back to back; a
+ *  delta entry starts with the raw 20-byte ID of its base. The index holds
+ *  a 256-entry fan-out table followed by fixed-width records sorted by
+ *  object ID, so that a lookup is a binary search within one fan-out
+ *  bucket. Both files are named after the SHA-1 of the packfile and are
+ *  never changed once written; the pointer file names the current pack,
+ *  so a new pack takes effect only once both of its files are in place.
+ *  The packfile is mapped in overlapping windows, so it may be larger
+ *  than a single mapping.
+ *  @author Abdumijit A. Dolkun
+ */
+public class Pack {
+
+    /** Type of a blob entry. */
+    static final byte BLOB = 1;
+
+    /** Type of a commit entry. */
+    static final byte COMMIT = 2;
+
+    /** Type of a blob entry stored as a delta against another blob. */
+    static final byte BLOB_DELTA = 3;
+
+    /** Type of a tree entry. */
+    static final byte TREE = 4;
+
+    /** Type of the chunk manifest of an object stored as chunks. */
+    static final byte MANIFEST = 5;
+
+    /** Magic number at the head of an index file. */
+    private static final int MAGIC = 0x47494458;
+
+    /** Number of fan-out buckets, one per leading ID byte. */
+    private static final int FANOUT = 256;
+
+    /** Length of a raw object ID in bytes. */
+    static final int ID_BYTES = 20;
+
+    /** Lowercase hexadecimal digits, by value. */
+    private static final byte[] HEX_DIGITS =
+            "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+    /** Width of an index record: ID, pack offset, length and type. */
+    private static final int RECORD = ID_BYTES + 8 + 4 + 1;
+
+    /** Offset of the first index record. */
+    private static final int HEADER = 8 + 4 * FANOUT;
+
+    /** Length of a mapped window of the packfile. */
+    private static final long WINDOW = 1L << 30;
+
+    /** Name of the pack in a folder without a pointer file, written
+     * before packs were named by their contents. */
+    private static final String OLD_NAME = "pack";
+
+    /** Folder holding the packfile and its index. */
+    private final File _folder;
+
+    /** Length of a mapped window of the packfile. A window starts every
+     * half window, so an entry no longer than that lies wholly within the
+     * window in which it starts. */
+    private final long _window;
+
+    /** Open packfile, or null if not loaded. */
+    private FileChannel _data;
+
+    /** Length of the packfile. */
+    private long _dataSize;
+
+    /** Windows of the packfile mapped so far, indexed by start offset
+     * over half the window length. */
+    private MappedByteBuffer[] _windows;
+
+    /** Mapped index file, or null if not loaded. */
+    private MappedByteBuffer _index;
+
+    /** Pack class constructor. The files are mapped on first use.
+     * @param folder folder holding the pack files
+     * */
+    public Pack(File folder) {
+        this(folder, WINDOW);
+    }
+
+    /** Pack class constructor that maps the packfile in windows of the
+     * given length.
+     * @param folder folder holding the pack files
+     * @param window length of a mapped window, at least 2
+     * */
+    Pack(File folder, long window) {
+        _folder = folder;
+        _window = window;
+    }
+
+    /** Returns the file naming the current pack.
+     * @return pointer file
+     * */
+    File pointerFile() {
+        return Utils.join(_folder, "current");
+    }
+
+    /** Returns the packfile of the pack NAME.
+     * @param name pack name
+     * @return packfile
+     * */
+    File dataFile(String name) {
+        return Utils.join(_folder, name + ".pack");
+    }
+
+    /** Returns the index file of the pack NAME.
+     * @param name pack name
+     * @return index file
+     * */
+    File indexFile(String name) {
+        return Utils.join(_folder, name + ".idx");
+    }
+
+    /** Maps the current pack if there is one and it is not mapped yet.
+     * Readers on several threads may get here at once, so the index is
+     * published only after the packfile is open.
+     * @return true if a pack is available
+     * */
+    private synchronized boolean load() {
+        if (_index != null) {
+            return true;
+        }
+        String name;
+        if (pointerFile().isFile()) {
+            name = Utils.readContentsAsString(pointerFile()).trim();
+        } else if (indexFile(OLD_NAME).isFile()) {
+            name = OLD_NAME;
+        } else {
+            return false;
+        }
+        MappedByteBuffer index = map(indexFile(name));
+        if (index.capacity() < HEADER || index.getInt(0) != MAGIC) {
+            throw Utils.error("Corrupt pack index.");
+        }
+        try {
+            _data = FileChannel.open(dataFile(name).toPath(),
+                    StandardOpenOption.READ);
+            _dataSize = _data.size();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot open %s.", dataFile(name).getName());
+        }
+        _windows = new MappedByteBuffer[(int) (_dataSize / half()) + 1];
+        _index = index;
+        return true;
+    }
+
+    /** Drops the current mapping so that the next lookup reloads the pack
+     * files from disk. */
+    synchronized void reload() {
+        if (_data != null) {
+            try {
+                _data.close();
+            } catch (IOException excp) {
+                throw Utils.error("Cannot close packfile.");
+            }
+        }
+        _index = null;
+        _data = null;
+        _windows = null;
+    }
+
+    /** Returns a read-only mapping of FILE.
+     * @param file file to map
+     * @return mapped contents
+     * */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot map %s.", file.getName());
+        }
+    }
+
+    /** Returns the distance between the starts of two windows.
+     * @return half the window length
+     * */
+    private long half() {
+        return _window / 2;
+    }
+
+    /** Returns window W of the packfile, mapping it on first use.
+     * @param w window number
+     * @return mapped window
+     * */
+    private synchronized MappedByteBuffer window(int w) {
+        if (_windows[w] == null) {
+            long start = w * half();
+            _windows[w] = map(start, Math.min(_window, _dataSize - start));
+        }
+        return _windows[w];
+    }
+
+    /** Returns a read-only mapping of LENGTH bytes of the packfile from
+     * OFFSET.
+     * @param offset start of the mapping
+     * @param length length of the mapping
+     * @return mapped bytes
+     * */
+    private MappedByteBuffer map(long offset, long length) {
+        try {
+            return _data.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot map packfile.");
+        }
+    }
+
+    /** Returns the number of objects in the pack.
+     * @return object count
+     * */
+    int size() {
+        return load() ? _index.getInt(4) : 0;
+    }
+
+    /** Returns the index record number of ID, or -1 if absent.
+     * @param id SHA1 ID of the object
+     * @return record number
+     * */
+    private int find(String id) {
+        if (!load() || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key;
+        try {
+            key = toBytes(id);
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+        int bucket = key[0] & 0xff;
+        int lo = bucket == 0 ? 0 : _index.getInt(8 + 4 * (bucket - 1));
+        int hi = _index.getInt(8 + 4 * bucket) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the ID of record K with KEY.
+     * @param k record number
+     * @param key raw object ID
+     * @return negative, zero or positive as for compareTo
+     * */
+    private int compareId(int k, byte[] key) {
+        int base = HEADER + k * RECORD;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int a = _index.get(base + i) & 0xff;
+            int b = key[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns true if the pack holds the object ID.
+     * @param id SHA1 ID of the object
+     * @return whether the object is packed
+     * */
+    public boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the type of the object ID, or 0 if it is not packed.
+     * @param id SHA1 ID of the object
+     * @return entry type
+     * */
+    public byte type(String id) {
+        int k = find(id);
+        return k < 0 ? 0 : _index.get(HEADER + k * RECORD + RECORD - 1);
+    }
+
+    /** Returns the raw contents of the packed object ID, resolving deltas.
+     * @param id SHA1 ID of the object
+     * @return object contents, or null if it is not packed
+     * */
+    public byte[] get(String id) {
+        int k = find(id);
+        if (k < 0) {
+            return null;
+        }
+        ByteBuffer entry = entry(k);
+        if (_index.get(HEADER + k * RECORD + RECORD - 1) == BLOB_DELTA) {
+            byte[] baseId = new byte[ID_BYTES];
+            entry.get(baseId);
+            byte[] base = get(toHex(baseId));
+            return Delta.apply(base, inflate(entry.slice()));
+        }
+        return inflate(entry);
+    }
+
+    /** Returns a view of the packfile bytes of index record K.
+     * @param k record number
+     * @return entry bytes
+     * */
+    private ByteBuffer entry(int k) {
+        int rec = HEADER + k * RECORD;
+        long offset = _index.getLong(rec + ID_BYTES);
+        int length = _index.getInt(rec + ID_BYTES + 8);
+        if (offset < 0 || length < 0 || offset > _dataSize - length) {
+            throw Utils.error("Corrupt pack index.");
+        }
+        int w = (int) (offset / half());
+        long start = w * half();
+        if (offset - start + length > _window) {
+            return map(offset, length);
+        }
+        ByteBuffer entry = window(w).duplicate();
+        entry.position((int) (offset - start));
+        entry.limit((int) (offset - start) + length);
+        return entry.slice();
+    }
+
+    /** Writes the contents of the packed object ID to OUT. Whole entries
+     * are inflated straight from the mapping through a fixed-size buffer;
+     * deltas are resolved in memory first.
+     * @param id SHA1 ID of the object
+     * @param out destination stream
+     * @return false if the object is not packed
+     * */
+    public boolean copy(String id, OutputStream out) throws IOException {
+        int k = find(id);
+        if (k < 0) {
+            return false;
+        }
+        int rec = HEADER + k * RECORD;
+        if (_index.get(rec + RECORD - 1) == BLOB_DELTA) {
+            out.write(get(id));
+            return true;
+        }
+        inflate(entry(k), out);
+        return true;
+    }
+
+    /** Returns the IDs of all packed objects of the given kind, sorted.
+     * @param kind BLOB (including deltas), COMMIT, TREE or MANIFEST
+     * @return list of object IDs
+     * */
+    public List<String> ids(byte kind) {
+        ArrayList<String> result = new ArrayList<>();
+        int n = size();
+        byte[] raw = new byte[ID_BYTES];
+        for (int k = 0; k < n; k += 1) {
+            int rec = HEADER + k * RECORD;
+            byte type = _index.get(rec + RECORD - 1);
+            if (type == kind || (kind == BLOB && type == BLOB_DELTA)) {
+                _index.get(rec, raw);
+                result.add(toHex(raw));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the inflated contents of IN.
+     * @param in deflated bytes
+     * @return raw bytes
+     * */
+    private static byte[] inflate(ByteBuffer in) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            inflate(in, out);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot inflate pack entry.");
+        }
+        return out.toByteArray();
+    }
+
+    /** Inflates IN into OUT through a fixed-size buffer.
+     * @param in deflated bytes
+     * @param out destination stream
+     * */
+    private static void inflate(ByteBuffer in, OutputStream out)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(in);
+        byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && !inflater.finished()
+                        && inflater.needsInput()) {
+                    throw Utils.error("Truncated pack entry.");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt pack entry.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Returns the deflated contents of DATA.
+     * @param data raw bytes
+     * @return compressed bytes
+     * */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Returns the hexadecimal form of the raw ID.
+     * @param raw raw ID bytes
+     * @return SHA1 ID
+     * */
+    static String toHex(byte[] raw) {
+        return toHex(raw, 0, raw.length);
+    }
+
+    /** Returns the hexadecimal form of the LENGTH raw ID bytes of DATA
+     * from OFFSET.
+     * @param data bytes holding the raw ID
+     * @param offset start of the raw ID
+     * @param length length of the raw ID
+     * @return SHA1 ID
+     * */
+    static String toHex(byte[] data, int offset, int length) {
+        byte[] result = new byte[2 * length];
+        for (int i = 0; i < length; i += 1) {
+            int b = data[offset + i];
+            result[2 * i] = HEX_DIGITS[(b >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns the raw form of the hexadecimal ID.
+     * @param id SHA1 ID
+     * @return raw ID bytes
+     * @throws NumberFormatException if ID is not an even number of
+     *         hexadecimal digits
+     * */
+    static byte[] toBytes(String id) {
+        if (id.length() % 2 != 0) {
+            throw new NumberFormatException("Odd-length ID " + id);
+        }
+        byte[] raw = new byte[id.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            int high = Character.digit(id.charAt(2 * i), 16);
+            int low = Character.digit(id.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new NumberFormatException("Non-hex ID " + id);
+            }
+            raw[i] = (byte) (high << 4 | low);
+        }
+        return raw;
+    }
+
+    /** One index record of a pack being written. */
+    private static class Record {
+        /** Raw object ID. */
+        private byte[] _id;
+        /** Offset of the entry in the packfile. */
+        private long _offset;
+        /** Length of the entry in the packfile. */
+        private int _length;
+        /** Entry type. */
+        private byte _type;
+    }
+
+    /** Builds a new packfile and index from a sequence of entries and
+     * replaces the current pack with them. The base of every delta entry
+     * must itself be an entry of the same pack. The current pack stays in
+     * use until the new one is complete on disk. */
+    static class Writer {
+
+        /** Pack the writer replaces. */
+        private final Pack _pack;
+
+        /** Temporary packfile being written. */
+        private final File _temp;
+
+        /** Stream onto the temporary packfile. */
+        private final DataOutputStream _out;
+
+        /** SHA-1 of the packfile written so far. */
+        private final MessageDigest _digest;
+
+        /** Records written so far. */
+        private final ArrayList<Record> _records = new ArrayList<>();
+
+        /** SHA1 IDs of the entries written so far. */
+        private final HashSet<String> _ids = new HashSet<>();
+
+        /** Current length of the temporary packfile. */
+        private long _offset;
+
+        /** Writer class constructor.
+         * @param pack pack to replace
+         * */
+        Writer(Pack pack) {
+            _pack = pack;
+            pack._folder.mkdirs();
+            try {
+                _digest = MessageDigest.getInstance("SHA-1");
+                _temp = File.createTempFile("pack", null, pack._folder);
+                _out = new DataOutputStream(new BufferedOutputStream(
+                        new DigestOutputStream(
+                                Files.newOutputStream(_temp.toPath()),
+                                _digest)));
+            } catch (IOException | NoSuchAlgorithmException excp) {
+                throw Utils.error("Cannot create packfile.");
+            }
+        }
+
+        /** Adds a whole object.
+         * @param id SHA1 ID of the object
+         * @param type BLOB or COMMIT
+         * @param contents raw object contents
+         * */
+        void add(String id, byte type, byte[] contents) {
+            write(id, type, null, deflate(contents));
+        }
+
+        /** Adds a blob stored as a delta against BASEID.
+         * @param id SHA1 ID of the blob
+         * @param baseId SHA1 ID of the base blob
+         * @param delta delta from the base to the blob
+         * */
+        void addDelta(String id, String baseId, byte[] delta) {
+            write(id, BLOB_DELTA, toBytes(baseId), deflate(delta));
+        }
+
+        /** Returns true if the object ID was added to the pack.
+         * @param id SHA1 ID of the object
+         * @return whether the object is in the new pack
+         * */
+        boolean wrote(String id) {
+            return _ids.contains(id);
+        }
+
+        /** Appends one entry to the packfile.
+         * @param id SHA1 ID of the object
+         * @param type entry type
+         * @param prefix raw base ID, or null
+         * @param body deflated entry body
+         * */
+        private void write(String id, byte type, byte[] prefix,
+                           byte[] body) {
+            try {
+                int length = body.length;
+                if (prefix != null) {
+                    _out.write(prefix);
+                    length += prefix.length;
+                }
+                _out.write(body);
+                Record rec = new Record();
+                rec._id = toBytes(id);
+                rec._offset = _offset;
+                rec._length = length;
+                rec._type = type;
+                _records.add(rec);
+                _ids.add(id);
+                _offset += length;
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write packfile.");
+            }
+        }
+
+        /** Writes the index, moves both files into place under the name of
+         * the new pack and then points the pointer file at it. Until then
+         * the current pack is untouched, so a crash leaves either the old
+         * pack or the new one in use. The files of every other pack are
+         * deleted last. */
+        void finish() {
+            try {
+                _out.close();
+                _records.sort((a, b) -> Arrays.compareUnsigned(
+                        a._id, b._id));
+                ByteBuffer idx = ByteBuffer.allocate(
+                        HEADER + _records.size() * RECORD);
+                idx.putInt(MAGIC);
+                idx.putInt(_records.size());
+                int[] counts = new int[FANOUT];
+                for (Record rec : _records) {
+                    counts[rec._id[0] & 0xff] += 1;
+                }
+                int total = 0;
+                for (int count : counts) {
+                    total += count;
+                    idx.putInt(total);
+                }
+                for (Record rec : _records) {
+                    idx.put(rec._id);
+                    idx.putLong(rec._offset);
+                    idx.putInt(rec._length);
+                    idx.put(rec._type);
+                }
+                File tempIdx = File.createTempFile("idx", null,
+                        _pack._folder);
+                try (FileChannel out = FileChannel.open(tempIdx.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    out.write(idx.flip());
+                    out.force(true);
+                }
+                try (FileChannel out = FileChannel.open(_temp.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    out.force(true);
+                }
+                String name = "pack-" + toHex(_digest.digest());
+                Files.move(_temp.toPath(), _pack.dataFile(name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempIdx.toPath(), _pack.indexFile(name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Utils.writeContentsAtomically(_pack.pointerFile(),
+                        name + "\n");
+                _pack.reload();
+                for (File file : _pack._folder.listFiles()) {
+                    if (!file.equals(_pack.pointerFile())
+                            && !file.equals(_pack.dataFile(name))
+                            && !file.equals(_pack.indexFile(name))) {
+                        file.delete();
+                    }
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write pack index.");
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Tests of the packfile and its index.
+ *  @author Abdumijit A. Dolkun
+ */
+public class PackTest {
+
+    /** Replaces PACK with random objects of many sizes, each third one
+     * a delta against the one before.
+     * @param pack pack to replace
+     * @param random source of the contents
+     * @param count number of objects
+     * @return SHA1 ID to contents of every object written
+     * */
+    private static TreeMap<String, byte[]> write(Pack pack, Random random,
+                                                 int count) {
+        TreeMap<String, byte[]> objects = new TreeMap<>();
+        Pack.Writer writer = new Pack.Writer(pack);
+        byte[] previous = null;
+        String previousID = null;
+        for (int n = 0; n < count; n += 1) {
+            byte[] contents = new byte[random.nextInt(n % 10 == 0
+                    ? 5000 : 200)];
+            random.nextBytes(contents);
+            String id = Utils.sha1(contents);
+            if (objects.containsKey(id)) {
+                continue;
+            }
+            if (n % 3 == 2 && previous != null) {
+                contents = Arrays.copyOf(previous, previous.length + 7);
+                id = Utils.sha1(contents);
+                writer.addDelta(id, previousID,
+                        Delta.create(previous, contents));
+            } else {
+                writer.add(id, Pack.BLOB, contents);
+            }
+            objects.put(id, contents);
+            previous = contents;
+            previousID = id;
+        }
+        writer.finish();
+        return objects;
+    }
+
+    /** Every packed object is found through the index and read back,
+     * whole or through a stream; absent and malformed IDs are not found.
+     * Windows much smaller than some entries make entries cross window
+     * boundaries and be mapped on their own. */
+    @Test
+    public void lookups() throws IOException {
+        File folder = Files.createTempDirectory("pack").toFile();
+        Pack pack = new Pack(folder, 1024);
+        TreeMap<String, byte[]> objects = write(pack, new Random(7), 500);
+        assertEquals(objects.size(), pack.size());
+        for (String id : objects.keySet()) {
+            assertTrue(pack.contains(id));
+            assertArrayEquals(objects.get(id), pack.get(id));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(pack.copy(id, out));
+            assertArrayEquals(objects.get(id), out.toByteArray());
+        }
+        assertEquals(new ArrayList<>(objects.keySet()), pack.ids(Pack.BLOB));
+        assertEquals(List.of(), pack.ids(Pack.COMMIT));
+        String absent = Utils.sha1("absent");
+        assertFalse(pack.contains(absent));
+        assertNull(pack.get(absent));
+        assertEquals(0, pack.type(absent));
+        assertFalse(pack.contains("not an id"));
+        assertFalse(pack.contains("zz" + absent.substring(2)));
+    }
+
+    /** A new pack replaces the old one, which is deleted, and a second
+     * reader of the folder sees the new pack. */
+    @Test
+    public void replaces() throws IOException {
+        File folder = Files.createTempDirectory("pack").toFile();
+        Pack pack = new Pack(folder);
+        TreeMap<String, byte[]> first = write(pack, new Random(1), 50);
+        TreeMap<String, byte[]> second = write(pack, new Random(2), 50);
+        Pack reader = new Pack(folder);
+        for (Pack p : new Pack[] {pack, reader}) {
+            assertEquals(second.size(), p.size());
+            assertFalse(p.contains(first.firstKey()));
+            assertArrayEquals(second.firstEntry().getValue(),
+                    p.get(second.firstKey()));
+        }
+        TreeSet<String> names = new TreeSet<>(
+                Utils.plainFilenamesIn(folder));
+        assertEquals(3, names.size());
+        String name = Utils.readContentsAsString(pack.pointerFile()).trim();
+        assertTrue(names.contains(name + ".pack"));
+        assertTrue(names.contains(name + ".idx"));
+    }
+
+    /** The writer reports exactly the objects handed to it, whole or as
+     * deltas, so gc deletes no loose object it did not pack. */
+    @Test
+    public void writerReportsWrittenIds() throws IOException {
+        File folder = Files.createTempDirectory("pack").toFile();
+        Pack.Writer writer = new Pack.Writer(new Pack(folder));
+        byte[] base = "base contents".getBytes();
+        byte[] next = "base contents, edited".getBytes();
+        writer.add(Utils.sha1(base), Pack.BLOB, base);
+        writer.addDelta(Utils.sha1(next), Utils.sha1(base),
+                Delta.create(base, next));
+        writer.finish();
+        assertTrue(writer.wrote(Utils.sha1(base)));
+        assertTrue(writer.wrote(Utils.sha1(next)));
+        assertFalse(writer.wrote(Utils.sha1("written later")));
+    }
+
+    /** IDs that are not hexadecimal are rejected rather than decoded to
+     * the bytes of some other ID. */
+    @Test
+    public void rejectsNonHexIds() {
+        assertArrayEquals(new byte[] {(byte) 0xff, 0x0a},
+                Pack.toBytes("ff0A"));
+        for (String id : new String[] {"zz", "8z", "z8", "abc", "-1"}) {
+            try {
+                Pack.toBytes(id);
+                fail(id);
+            } catch (NumberFormatException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** An empty folder holds no pack. */
+    @Test
+    public void empty() throws IOException {
+        File folder = Files.createTempDirectory("pack").toFile();
+        Pack pack = new Pack(folder);
+        assertEquals(0, pack.size());
+        assertFalse(pack.contains(Utils.sha1("x")));
+        assertEquals(List.of(), pack.ids(Pack.BLOB));
+    }
+}
@@ -0,0 +1,276 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** Finds the files that were renamed between two snapshots, given the
+ *  files deleted and the files added. Files with the same blob ID are
+ *  paired first. The rest are compared by MinHash signatures of their sets
+ *  of lines: the fraction of signature slots two files share estimates
+ *  the Jaccard similarity of their lines. Rather than comparing every
+ *  deleted file with every added one, signatures are split into bands
+ *  and only files that agree on a whole band are compared (locality-
+ *  sensitive hashing). Pairs at least THRESHOLD percent similar are then
+ *  matched greedily, most similar first, each file in at most one pair.
+ *  An added file with the same blob as a deleted file that was already
+ *  paired is reported as a copy of it; similar files are not.
+ *  @author Abdumijit A. Dolkun
+ */
+public class Renames {
+
+    /** Least similarity, in percent, of a rename. */
+    static final int THRESHOLD = 50;
+
+    /** Number of MinHash values in a signature. */
+    private static final int HASHES = 64;
+
+    /** Number of signature values in one band. */
+    private static final int ROWS = 2;
+
+    /** A detected rename or copy. */
+    public static class Rename {
+        /** Old path. */
+        private final String _from;
+        /** New path. */
+        private final String _to;
+        /** Similarity of the two versions, in percent. */
+        private final int _score;
+        /** True if the old path was renamed to another file. */
+        private final boolean _copy;
+
+        /** Rename class constructor.
+         * @param from old path
+         * @param to new path
+         * @param score similarity in percent
+         * @param copy true if FROM was renamed to another file
+         * */
+        Rename(String from, String to, int score, boolean copy) {
+            _from = from;
+            _to = to;
+            _score = score;
+            _copy = copy;
+        }
+
+        /** Returns the old path.
+         * @return path before the rename
+         * */
+        public String getFrom() {
+            return _from;
+        }
+
+        /** Returns the new path.
+         * @return path after the rename
+         * */
+        public String getTo() {
+            return _to;
+        }
+
+        /** Returns the estimated similarity of the two versions.
+         * @return similarity in percent
+         * */
+        public int getScore() {
+            return _score;
+        }
+
+        /** Returns true if this is a copy of a file renamed elsewhere.
+         * @return whether the new file is a copy
+         * */
+        public boolean isCopy() {
+            return _copy;
+        }
+    }
+
+    /** Returns the renames from the files DELETED to the files ADDED.
+     * Deleted files are read from the blob store; added files are read
+     * with ADDEDCONTENTS, since they may not have been stored yet.
+     * @param deleted path to blob ID of each deleted file
+     * @param added path to blob ID of each added file
+     * @param addedContents returns the contents of an added path
+     * @return renames and copies, sorted by new path
+     * */
+    public static List<Rename> find(Map<String, String> deleted,
+                                    Map<String, String> added,
+                                    Function<String, byte[]> addedContents) {
+        return find(deleted, added,
+                path -> Blob.read(deleted.get(path)).getContents(),
+                addedContents);
+    }
+
+    /** Returns the renames from the files DELETED to the files ADDED,
+     * reading the contents of both through the given functions.
+     * @param deleted path to blob ID of each deleted file
+     * @param added path to blob ID of each added file
+     * @param deletedContents returns the contents of a deleted path
+     * @param addedContents returns the contents of an added path
+     * @return renames and copies, sorted by new path
+     * */
+    static List<Rename> find(Map<String, String> deleted,
+                             Map<String, String> added,
+                             Function<String, byte[]> deletedContents,
+                             Function<String, byte[]> addedContents) {
+        TreeMap<String, Rename> result = new TreeMap<>();
+        HashMap<String, List<String>> byBlob = new HashMap<>();
+        for (Map.Entry<String, String> file : deleted.entrySet()) {
+            byBlob.computeIfAbsent(file.getValue(), k -> new ArrayList<>())
+                    .add(file.getKey());
+        }
+        ArrayList<String> oldPaths = new ArrayList<>(deleted.keySet());
+        ArrayList<String> newPaths = new ArrayList<>();
+        ArrayList<String> copies = new ArrayList<>();
+        for (Map.Entry<String, String> file : added.entrySet()) {
+            List<String> same = byBlob.get(file.getValue());
+            String from = null;
+            if (same != null) {
+                for (String path : same) {
+                    if (oldPaths.remove(path)) {
+                        from = path;
+                        break;
+                    }
+                }
+            }
+            if (from != null) {
+                result.put(file.getKey(),
+                        new Rename(from, file.getKey(), 100, false));
+            } else if (same != null) {
+                copies.add(file.getKey());
+            } else {
+                newPaths.add(file.getKey());
+            }
+        }
+        for (String to : copies) {
+            String from = byBlob.get(added.get(to)).get(0);
+            result.put(to, new Rename(from, to, 100, true));
+        }
+        if (oldPaths.isEmpty() || newPaths.isEmpty()) {
+            return new ArrayList<>(result.values());
+        }
+
+        List<int[]> oldSigs = oldPaths.parallelStream()
+                .map(path -> signature(deletedContents.apply(path)))
+                .toList();
+        List<int[]> newSigs = newPaths.parallelStream()
+                .map(path -> signature(addedContents.apply(path)))
+                .toList();
+        ArrayList<long[]> pairs = new ArrayList<>();
+        ArrayList<HashMap<Long, List<Integer>>> bands = new ArrayList<>();
+        for (int band = 0; band < HASHES / ROWS; band += 1) {
+            HashMap<Long, List<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < oldSigs.size(); i += 1) {
+                if (oldSigs.get(i) != null) {
+                    buckets.computeIfAbsent(bandKey(oldSigs.get(i), band),
+                            k -> new ArrayList<>()).add(i);
+                }
+            }
+            bands.add(buckets);
+        }
+        for (int j = 0; j < newSigs.size(); j += 1) {
+            int[] sig = newSigs.get(j);
+            if (sig == null) {
+                continue;
+            }
+            HashSet<Integer> candidates = new HashSet<>();
+            for (int band = 0; band < bands.size(); band += 1) {
+                List<Integer> bucket =
+                        bands.get(band).get(bandKey(sig, band));
+                if (bucket != null) {
+                    candidates.addAll(bucket);
+                }
+            }
+            for (int i : candidates) {
+                int score = similarity(oldSigs.get(i), sig);
+                if (score >= THRESHOLD) {
+                    pairs.add(new long[] {score, i, j});
+                }
+            }
+        }
+        pairs.sort(Comparator.comparingLong((long[] p) -> -p[0])
+                .thenComparingLong(p -> p[1]).thenComparingLong(p -> p[2]));
+        boolean[] oldUsed = new boolean[oldPaths.size()];
+        boolean[] newUsed = new boolean[newPaths.size()];
+        for (long[] pair : pairs) {
+            int i = (int) pair[1];
+            int j = (int) pair[2];
+            if (!oldUsed[i] && !newUsed[j]) {
+                oldUsed[i] = newUsed[j] = true;
+                result.put(newPaths.get(j), new Rename(oldPaths.get(i),
+                        newPaths.get(j), (int) pair[0], false));
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /** Returns the MinHash signature of the set of lines of CONTENTS: for
+     * each of HASHES hash functions, the least hash of any line.
+     * @param contents file contents
+     * @return signature, or null for an empty file
+     * */
+    private static int[] signature(byte[] contents) {
+        if (contents.length == 0) {
+            return null;
+        }
+        int[] result = new int[HASHES];
+        Arrays.fill(result, Integer.MAX_VALUE);
+        HashSet<Integer> seen = new HashSet<>();
+        for (String line : UnifiedDiff.lines(contents)) {
+            int hash = line.strip().hashCode();
+            if (!seen.add(hash)) {
+                continue;
+            }
+            for (int k = 0; k < HASHES; k += 1) {
+                int h = mix(hash + k * 0x9E3779B9);
+                if (h < result[k]) {
+                    result[k] = h;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the similarity of the signatures ONE and TWO.
+     * @param one signature
+     * @param two signature
+     * @return percentage of equal slots
+     * */
+    private static int similarity(int[] one, int[] two) {
+        int same = 0;
+        for (int k = 0; k < HASHES; k += 1) {
+            if (one[k] == two[k]) {
+                same += 1;
+            }
+        }
+        return same * 100 / HASHES;
+    }
+
+    /** Returns the key of band BAND of the signature SIG.
+     * @param sig signature
+     * @param band band number
+     * @return key combining the values of the band
+     * */
+    private static long bandKey(int[] sig, int band) {
+        long key = 0;
+        for (int k = band * ROWS; k < (band + 1) * ROWS; k += 1) {
+            key = key * 0x100000001B3L + sig[k];
+        }
+        return key;
+    }
+
+    /** Returns a well-mixed hash of X (the murmur3 finalizer).
+     * @param x value to hash
+     * @return mixed value
+     * */
+    private static int mix(int x) {
+        x ^= x >>> 16;
+        x *= 0x85EBCA6B;
+        x ^= x >>> 13;
+        x *= 0xC2B2AE35;
+        x ^= x >>> 16;
+        return x;
+    }
+}
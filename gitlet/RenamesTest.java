@@ -0,0 +1,163 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** Tests of rename detection.
+ *  @author Abdumijit A. Dolkun
+ */
+public class RenamesTest {
+
+    /** Contents of the files of a test, by blob ID. */
+    private final HashMap<String, byte[]> _blobs = new HashMap<>();
+
+    /** Adds a file with contents TEXT at PATH of FILES.
+     * @param files path to blob ID map
+     * @param path file path
+     * @param text file contents
+     * */
+    private void put(TreeMap<String, String> files, String path,
+                     String text) {
+        byte[] contents = text.getBytes(StandardCharsets.UTF_8);
+        String id = Utils.sha1(contents);
+        _blobs.put(id, contents);
+        files.put(path, id);
+    }
+
+    /** Returns the renames from DELETED to ADDED.
+     * @param deleted deleted files
+     * @param added added files
+     * @return renames
+     * */
+    private List<Renames.Rename> find(TreeMap<String, String> deleted,
+                                      TreeMap<String, String> added) {
+        return Renames.find(deleted, added,
+                path -> _blobs.get(deleted.get(path)),
+                path -> _blobs.get(added.get(path)));
+    }
+
+    /** Returns LINES numbered lines starting with PREFIX.
+     * @param prefix start of every line
+     * @param lines number of lines
+     * @return text
+     * */
+    private static String text(String prefix, int lines) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            result.append(prefix).append(' ').append(i).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Checks that RENAME goes from FROM to TO.
+     * @param rename rename found
+     * @param from old path
+     * @param to new path
+     * */
+    private static void check(Renames.Rename rename, String from,
+                              String to) {
+        assertEquals(from, rename.getFrom());
+        assertEquals(to, rename.getTo());
+    }
+
+    /** Files with the same blob are paired exactly, and two deleted files
+     * with the same blob give one rename. */
+    @Test
+    public void pairsEqualBlobs() {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        put(deleted, "a.txt", text("a", 10));
+        put(deleted, "copy.txt", text("a", 10));
+        put(added, "b.txt", text("a", 10));
+        List<Renames.Rename> found = find(deleted, added);
+        assertEquals(1, found.size());
+        check(found.get(0), "a.txt", "b.txt");
+        assertEquals(100, found.get(0).getScore());
+    }
+
+    /** An added file with the blob of a deleted file already renamed is
+     * reported as a copy of it; one that is only similar is not. */
+    @Test
+    public void reportsCopies() {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        put(deleted, "a.txt", text("a", 10));
+        put(deleted, "old.txt", text("line", 100));
+        put(added, "b.txt", text("a", 10));
+        put(added, "c.txt", text("a", 10));
+        put(added, "new.txt", text("line", 99) + "edited\n");
+        put(added, "newer.txt", text("line", 90));
+        List<Renames.Rename> found = find(deleted, added);
+        assertEquals(3, found.size());
+        check(found.get(0), "a.txt", "b.txt");
+        assertFalse(found.get(0).isCopy());
+        check(found.get(1), "a.txt", "c.txt");
+        assertTrue(found.get(1).isCopy());
+        assertEquals(100, found.get(1).getScore());
+        check(found.get(2), "old.txt", "new.txt");
+        assertFalse(found.get(2).isCopy());
+    }
+
+    /** A file moved with a small edit is paired with its old path, an
+     * unrelated file is not, and an empty file is never paired by
+     * similarity. */
+    @Test
+    public void pairsSimilarFiles() {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        put(deleted, "old.txt", text("line", 100));
+        put(deleted, "gone.txt", text("gone", 50));
+        put(deleted, "empty.txt", "");
+        put(added, "new.txt", text("line", 95) + "edited\n");
+        put(added, "other.txt", text("other", 50));
+        put(added, "blank.txt", "\n");
+        List<Renames.Rename> found = find(deleted, added);
+        assertEquals(1, found.size());
+        check(found.get(0), "old.txt", "new.txt");
+        assertTrue(found.get(0).getScore() >= Renames.THRESHOLD);
+        assertTrue(found.get(0).getScore() < 100);
+    }
+
+    /** Each file is paired with its most similar counterpart, most
+     * similar pairs first, and in at most one pair. */
+    @Test
+    public void pairsMostSimilarFirst() {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        put(deleted, "one.txt", text("x", 60) + text("one", 40));
+        put(deleted, "two.txt", text("x", 60) + text("two", 40));
+        put(added, "a.txt", text("x", 60) + text("two", 38));
+        put(added, "b.txt", text("x", 60) + text("one", 39));
+        put(added, "c.txt", text("x", 60) + text("one", 30));
+        List<Renames.Rename> found = find(deleted, added);
+        assertEquals(2, found.size());
+        check(found.get(0), "two.txt", "a.txt");
+        check(found.get(1), "one.txt", "b.txt");
+    }
+
+    /** Many renamed files with small edits are all paired correctly. */
+    @Test
+    public void pairsManyFiles() {
+        Random random = new Random(24);
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        for (int n = 0; n < 1000; n += 1) {
+            String body = text("file " + n, 40);
+            put(deleted, "old/" + n, body);
+            put(added, "new/" + n,
+                    body + "extra " + random.nextInt() + "\n");
+        }
+        List<Renames.Rename> found = find(deleted, added);
+        assertEquals(1000, found.size());
+        for (Renames.Rename rename : found) {
+            assertEquals(rename.getFrom().substring(4),
+                    rename.getTo().substring(4));
+        }
+    }
+}
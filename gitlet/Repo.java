@@ -1,24 +1,43 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-public class Repo implements Serializable {
+/** The state of the repository, kept on disk as small separate files:
+ *  HEAD names the current branch, each branch file holds the ID of its
+ *  head commit, and the index holds the Stage. Each piece is read only
+ *  when first asked for, and save writes back only the pieces that were
+ *  updated.
+ */
+public class Repo {
 
-    /** Head commit in the current branch. */
+    /** Head commit in the current branch, or null if not loaded. */
     private Commit _head;
 
-    /** Current stage name. */
+    /** Current stage, or null if not loaded. */
     private Stage _stage;
 
-    /** Current branch name. */
+    /** Current branch name, or null if not loaded. */
     private String _branch;
 
-    /** TreeMap of all the split points of branches.
-     * Key is the branch name created at the Commit,
-     * Value is the initial commitID on this branch. */
-    private ArrayList<String> _forks;
+    /** True if _head must be written back to the current branch. */
+    private boolean _headChanged;
+
+    /** True if _stage must be written back to the index. */
+    private boolean _stageChanged;
+
+    /** Serialized stage as last read from or written to the index. */
+    private byte[] _stageBytes;
+
+    /** True if _branch must be written back to HEAD. */
+    private boolean _branchChanged;
 
     /** Current Working Directory pointer. */
     static final File CWD = new File(System.getProperty("user.dir"));
@@ -26,8 +45,11 @@ public class Repo implements Serializable {
     /** .gitlet folder to store all operating files. */
     static final File GITLET_FOLDER = Utils.join(CWD, ".gitlet");
 
-    /** Repo folder to store all git repositories. */
-    static final File REPO_FILE = Utils.join(GITLET_FOLDER, "repo");
+    /** HEAD file holding the name of the current branch. */
+    static final File HEAD_FILE = Utils.join(GITLET_FOLDER, "HEAD");
+
+    /** Index file holding the staging area and stat cache. */
+    static final File INDEX_FILE = Utils.join(GITLET_FOLDER, "index");
 
     /** Commit folder to store all commit files. */
     static final File COMMIT_FOLDER = Utils.join(GITLET_FOLDER, "commits");
@@ -35,28 +57,64 @@ public class Repo implements Serializable {
     /** Blob folder to store all added files with blobSHAID. */
     static final File BLOB_FOLDER = Utils.join(GITLET_FOLDER, "blobs");
 
-    /** Branch folder to store all branches. */
+    /** Pack folder to store the packfile and its index. */
+    static final File PACK_FOLDER = Utils.join(GITLET_FOLDER, "pack");
+
+    /** Packfile holding the objects packed by gc. */
+    static final Pack PACK = new Pack(PACK_FOLDER);
+
+    /** Content-addressed store of compressed blobs in BLOB_FOLDER. */
+    static final ObjectStore BLOB_STORE = new ObjectStore(BLOB_FOLDER, PACK);
+
+    /** Commit graph of every commit in the repository. */
+    static final CommitGraph GRAPH = new CommitGraph(GITLET_FOLDER);
+
+    /** Index of the messages of every commit. */
+    static final MessageIndex MESSAGES =
+            new MessageIndex(Utils.join(GITLET_FOLDER, "messages"));
+
+    /** Branch folder to store the head commitID of every branch. */
     static final File BRANCH_FOLDER = Utils.join(GITLET_FOLDER, "branches");
 
-    /** Repo class constructor. */
+    /** Repo class constructor. Nothing is read until it is asked for. */
     public Repo() {
-        _head = null;
-        _stage = new Stage();
-        _branch = "master";
-        _forks = new ArrayList<>();
     }
 
     /** Returns the head commit of the Repo at the current branch.
      * @return current head commit
      * */
     public Commit getHead() {
+        if (_head == null) {
+            String headID = readBranchID(getBranch());
+            if (headID != null) {
+                _head = RepoCommand.readCommit(headID);
+            }
+        }
         return _head;
     }
 
+    /** Returns the ID of the head commit without loading the commit.
+     * @return current head commitID
+     * */
+    public String getHeadID() {
+        if (_head != null) {
+            return _head.getCommitID();
+        }
+        return readBranchID(getBranch());
+    }
+
     /** Returns the Stage class of the current repo.
      * @return current staging area
      * */
     public Stage getStage() {
+        if (_stage == null) {
+            if (INDEX_FILE.isFile()) {
+                _stageBytes = Utils.readContents(INDEX_FILE);
+                _stage = Stage.fromBytes(_stageBytes, indexTime());
+            } else {
+                _stage = new Stage();
+            }
+        }
         return _stage;
     }
 
@@ -64,21 +122,19 @@ public class Repo implements Serializable {
      * @return current branch name
      * */
     public String getBranch() {
+        if (_branch == null) {
+            _branch = HEAD_FILE.isFile()
+                    ? Utils.readContentsAsString(HEAD_FILE).trim() : "master";
+        }
         return _branch;
     }
 
-    /** Returns the current state of fork list.
-     * @return split points list
-     * */
-    public ArrayList<String> getFork() {
-        return _forks;
-    }
-
     /** Updates the _head of the current repo.
      * @param newCommit new head commit
      * */
     public void updateHead(Commit newCommit) {
         _head = newCommit;
+        _headChanged = true;
     }
 
     /** Updates the _stage of the current repo.
@@ -86,6 +142,7 @@ public class Repo implements Serializable {
      * */
     public void updateStage(Stage newStage) {
         _stage = newStage;
+        _stageChanged = true;
     }
 
     /** Updates the _branch of the current repo.
@@ -93,12 +150,120 @@ public class Repo implements Serializable {
      * */
     public void updateBranch(String newBranch) {
         _branch = newBranch;
+        _branchChanged = true;
     }
 
-    /** Updates the _branch of the current repo.
-     * @param commitID split commitID of a branch
+    /** Writes back only the pieces of state that were updated. Callers
+     * edit the stage in place, so it is written whenever its contents
+     * differ from what the index last held. */
+    public void save() {
+        if (_branchChanged) {
+            Utils.writeContentsAtomically(HEAD_FILE, _branch + "\n");
+        }
+        if (_headChanged) {
+            writeBranchID(getBranch(), _head.getCommitID());
+        }
+        if (_stage != null) {
+            byte[] stageBytes = _stage.toBytes();
+            if (_stageChanged || !Arrays.equals(stageBytes, _stageBytes)) {
+                Utils.writeContentsAtomically(INDEX_FILE, stageBytes);
+                _stageBytes = stageBytes;
+            }
+        }
+        _headChanged = _stageChanged = _branchChanged = false;
+    }
+
+    /** Returns the modification time of the index in nanoseconds.
+     * @return index mtime
+     * */
+    private static long indexTime() {
+        try {
+            return Files.getLastModifiedTime(INDEX_FILE.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            return 0;
+        }
+    }
+
+    /** Returns the head commitID of the given branch.
+     * @param branchName branch name
+     * @return commitID, or null if there is no such branch
+     * */
+    static String readBranchID(String branchName) {
+        File branchFile = Utils.join(BRANCH_FOLDER, branchName);
+        if (!branchFile.isFile()) {
+            return null;
+        }
+        return Utils.readContentsAsString(branchFile).trim();
+    }
+
+    /** Points the given branch at the given commit.
+     * @param branchName branch name
+     * @param commitID new head commitID of the branch
+     * */
+    static void writeBranchID(String branchName, String commitID) {
+        Utils.writeContentsAtomically(Utils.join(BRANCH_FOLDER, branchName),
+                commitID + "\n");
+    }
+
+    /** Returns NAME as a path relative to the working directory, with
+     * '/' separating its components.
+     * @param name file name given on the command line
+     * @return normalized relative path
+     * */
+    static String relativePath(String name) {
+        File file = new File(name);
+        if (!file.isAbsolute()) {
+            file = new File(CWD, name);
+        }
+        String path = CWD.toPath().normalize()
+                .relativize(file.toPath().normalize()).toString();
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /** Returns the relative paths of all plain files under the working
+     * directory, in sorted order, skipping the .gitlet folder.
+     * @return sorted relative paths
+     * */
+    static List<String> workingFiles() {
+        ArrayList<String> result = new ArrayList<>();
+        collectFiles(CWD, "", result);
+        result.sort(null);
+        return result;
+    }
+
+    /** Adds the relative path of every plain file under DIR to RESULT.
+     * @param dir directory being listed
+     * @param prefix relative path of DIR followed by '/', or ""
+     * @param result paths found so far
+     * */
+    private static void collectFiles(File dir, String prefix,
+                                     List<String> result) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.isFile()) {
+                result.add(prefix + entry.getName());
+            } else if (entry.isDirectory() && !entry.equals(GITLET_FOLDER)) {
+                collectFiles(entry, prefix + entry.getName() + "/", result);
+            }
+        }
+    }
+
+    /** Deletes the working file at the relative PATH, if present, and then
+     * every directory above it that has been left empty.
+     * @param path relative path of the file
      * */
-    public void updateFork(String commitID) {
-        _forks.add(commitID);
+    static void deleteWorkingFile(String path) {
+        File file = Utils.join(CWD, path);
+        if (!file.isFile() || !file.delete()) {
+            return;
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
     }
 }
@@ -1,14 +1,34 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
-import java.util.LinkedList;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 
 
@@ -33,11 +53,6 @@ public class RepoCommand {
      */
     private static String _branch;
 
-    /**
-     * Current state of fork.
-     */
-    private static ArrayList<String> _fork;
-
     /** T/F for merge conflict. */
     private static boolean _conflict;
     /**
@@ -45,6 +60,39 @@ public class RepoCommand {
      */
     private static final int SHA1LENGTH = 40;
 
+    /**
+     * Most threads that write files during checkout and reset.
+     */
+    private static final int CHECKOUT_THREADS =
+            Math.min(16, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Threads that compute file diffs.
+     */
+    private static final int DIFF_THREADS =
+            Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Most file diffs computed ahead of the one being printed.
+     */
+    private static final int DIFF_WINDOW = 4 * DIFF_THREADS;
+
+    /**
+     * Commits already read, weighed by their serialized size.
+     */
+    static final ObjectCache<Commit> COMMIT_CACHE =
+            new ObjectCache<>(4 << 20);
+
+    /**
+     * Number of earlier versions gc tries as delta bases.
+     */
+    private static final int PACK_WINDOW = 10;
+
+    /**
+     * Longest chain of deltas gc builds before storing a whole version.
+     */
+    private static final int PACK_MAX_DEPTH = 50;
+
     /**
      * RepoCommand class constructor.
      */
@@ -53,7 +101,6 @@ public class RepoCommand {
         _stage = _repo.getStage();
         _head = _repo.getHead();
         _branch = _repo.getBranch();
-        _fork = _repo.getFork();
         _conflict = false;
     }
 
@@ -70,61 +117,117 @@ public class RepoCommand {
         Repo.BRANCH_FOLDER.mkdir();
 
         Commit initialCommit = new Commit("initial commit",
-                new TreeMap<>(), null, null, _repo);
-        Utils.writeObject(Utils.join(Repo.COMMIT_FOLDER,
-                initialCommit.getCommitID()), initialCommit);
+                new TreeMap<>(), null, null);
+        writeCommit(initialCommit);
         _repo.updateHead(initialCommit);
 
-        _repo.updateFork(initialCommit.getCommitID());
-        updateBranchHead("master", initialCommit);
+        _repo.updateBranch("master");
         saveRepo(_repo);
     }
 
     /**
-     * Reads all the settings of the current repository.
+     * Opens the current repository. Its pieces are read lazily, so a
+     * command only reads the state it touches.
      *
      * @return editable current repo class
      */
     public static Repo readRepo() {
-        return Utils.readObject(Repo.REPO_FILE, Repo.class);
+        return new Repo();
     }
 
     /**
-     * Saves all the setting of the current repo.
+     * Saves the pieces of the current repo that the command changed.
      *
      * @param currRepo current repository
      */
     public static void saveRepo(Repo currRepo) {
-        Utils.writeObject(Repo.REPO_FILE, currRepo);
+        currRepo.save();
     }
 
     /**
-     * Adds a copy of the file as it currently exists to the staging area.
+     * Adds a copy of each named file as it currently exists to the staging
+     * area. A name may be a file, a directory, which adds every file under
+     * it, or a glob pattern matched against paths relative to the working
+     * directory. The files are hashed and stored in parallel, and the
+     * index is written once at the end.
      *
-     * @param fileName file name
+     * @param names file names, directories and glob patterns
      */
-    public static void add(String fileName) {
+    public static void add(String... names) {
         Repo currRepo = readRepo();
-        File addFile = Utils.join(currRepo.CWD, fileName);
+        Stage stage = currRepo.getStage();
+        if (names.length == 0) {
+            System.out.println("Incorrect Operands");
+            Main.exit();
+        }
+        TreeSet<String> fileNames = new TreeSet<>();
+        for (String name : names) {
+            List<String> matched = expandPath(name);
+            if (matched.isEmpty()) {
+                System.out.println("File does not exist.");
+                Main.exit();
+            }
+            fileNames.addAll(matched);
+        }
 
-        if (!addFile.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        } else if (currRepo.getStage().getRemoveList().contains(fileName)) {
-            Blob commitBlob = readBlob(currRepo.getHead(), fileName);
-            String blobContent = commitBlob.getBlobContents();
-            Utils.writeContents(addFile, blobContent);
-            currRepo.getStage().getRemoveList().remove(fileName);
-        } else if (currRepo.getHead().getBlobMap().containsKey(fileName)
-                && readBlob(currRepo.getHead(), fileName).
-                getBlobContents().equals(Utils.readContentsAsString(addFile))) {
-            System.exit(0);
-        } else {
-            currRepo.getStage().toAddMap(fileName);
+        Map<String, String> blobIDs = fileNames.parallelStream().collect(
+                Collectors.toMap(fileName -> fileName, fileName ->
+                        stage.storedID(fileName,
+                                Utils.join(Repo.CWD, fileName))));
+        TreeMap<String, String> headMap = currRepo.getHead().getBlobMap();
+        for (String fileName : fileNames) {
+            String blobID = blobIDs.get(fileName);
+            stage.getRemoveList().remove(fileName);
+            if (blobID.equals(headMap.get(fileName))) {
+                stage.getAddTree().remove(fileName);
+            } else {
+                stage.toAddMap(fileName, blobID);
+            }
         }
         saveRepo(currRepo);
     }
 
+    /**
+     * Returns the working files named by NAME: the file itself, every
+     * file under a directory, or every file matching a glob pattern. A
+     * name that exists is taken literally even if it holds glob
+     * characters, so that a file like a[1].txt can be named.
+     *
+     * @param name file name, directory or glob pattern
+     * @return sorted relative paths, empty if nothing matches
+     */
+    private static List<String> expandPath(String name) {
+        ArrayList<String> result = new ArrayList<>();
+        String path = Repo.relativePath(name);
+        File file = Utils.join(Repo.CWD, path);
+        if (!file.exists() && name.matches(".*[*?\\[{].*")) {
+            String pattern = name.replace(File.separatorChar, '/');
+            while (pattern.startsWith("./")) {
+                pattern = pattern.substring(2);
+            }
+            PathMatcher matcher = FileSystems.getDefault()
+                    .getPathMatcher("glob:" + pattern);
+            for (String working : Repo.workingFiles()) {
+                if (matcher.matches(Paths.get(working))) {
+                    result.add(working);
+                }
+            }
+            return result;
+        } else if (path.equals("..") || path.startsWith("../")) {
+            return result;
+        } else if (file.isFile()) {
+            result.add(path);
+        } else if (file.isDirectory()) {
+            String prefix = path.isEmpty() ? "" : path + "/";
+            for (String working : Repo.workingFiles()) {
+                if (working.startsWith(prefix)) {
+                    result.add(working);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns the blob from the blobMap of the given Commit.
      *
@@ -132,19 +235,64 @@ public class RepoCommand {
      * @param fileName   file name
      */
     public static Blob readBlob(Commit fromCommit, String fileName) {
-        String blobID = fromCommit.getBlobMap().get(fileName);
-        File blobFile = Utils.join(Repo.BLOB_FOLDER, blobID);
-        return Utils.readObject(blobFile, Blob.class);
+        return Blob.read(fromCommit.getBlobID(fileName));
     }
 
     /**
-     * Returns the Commit using the CommitID in COMMIT_Folder.
+     * Writes the new commit into COMMIT_FOLDER and adds it to the commit
+     * graph and the message index.
+     *
+     * @param commit commit to store
+     */
+    public static void writeCommit(Commit commit) {
+        Utils.writeContents(Utils.join(Repo.COMMIT_FOLDER,
+                commit.getCommitID()), commit.toBytes());
+        Repo.GRAPH.add(commit);
+        Repo.MESSAGES.add(commit.getCommitID(), commit.getMessage());
+    }
+
+    /**
+     * Returns the Commit using the CommitID in COMMIT_Folder. Commits
+     * already read are returned from COMMIT_CACHE and must not be
+     * modified.
      *
      * @param commitID SHA1 ID of the commit
      */
     public static Commit readCommit(String commitID) {
+        Commit commit = COMMIT_CACHE.get(commitID);
+        if (commit == null) {
+            byte[] bytes = readCommitBytes(commitID);
+            commit = Commit.fromBytes(commitID, bytes);
+            COMMIT_CACHE.put(commitID, commit, bytes.length);
+        }
+        return commit;
+    }
+
+    /**
+     * Returns the serialized Commit with the given CommitID, either from
+     * its loose file in COMMIT_FOLDER or from the pack.
+     *
+     * @param commitID SHA1 ID of the commit
+     */
+    public static byte[] readCommitBytes(String commitID) {
         File commitFile = Utils.join(Repo.COMMIT_FOLDER, commitID);
-        return Utils.readObject(commitFile, Commit.class);
+        if (!commitFile.isFile()) {
+            byte[] packed = Repo.PACK.get(commitID);
+            if (packed != null) {
+                return packed;
+            }
+        }
+        return Utils.readContents(commitFile);
+    }
+
+    /**
+     * Returns the SHA1 IDs of all commits, loose or packed, sorted.
+     */
+    public static List<String> commitIDs() {
+        TreeSet<String> ids = new TreeSet<>(
+                Utils.plainFilenamesIn(Repo.COMMIT_FOLDER));
+        ids.addAll(Repo.PACK.ids(Pack.COMMIT));
+        return new ArrayList<>(ids);
     }
 
     /**
@@ -160,28 +308,25 @@ public class RepoCommand {
         if (currRepo.getStage().getAddTree().isEmpty()
                 && currRepo.getStage().getRemoveList().isEmpty()) {
             System.out.println("No changes added to the commit.");
-            System.exit(0);
+            Main.exit();
         } else if (msg.equals("")) {
             System.out.println("Please enter a commit message.");
-            System.exit(0);
+            Main.exit();
         }
 
+        TreeMap<String, String> changes =
+                new TreeMap<>(_stage.getAddTree());
         for (String remove : _stage.getRemoveList()) {
-            if (_stage.getAddTree().containsKey(remove)) {
-                _stage.getAddTree().remove(remove);
-            }
+            changes.put(remove, null);
         }
 
-        Commit newCommit = new Commit(msg, _stage.getAddTree(),
-                null, currRepo.getHead(), currRepo);
+        Commit newCommit = new Commit(msg,
+                Tree.update(currRepo.getHead().getTree(), changes),
+                null, currRepo.getHead());
         currRepo.updateHead(newCommit);
-        Utils.writeObject(Utils.join(Repo.COMMIT_FOLDER,
-                newCommit.getCommitID()), newCommit);
+        writeCommit(newCommit);
         _stage.clear();
 
-        if (Utils.plainFilenamesIn(currRepo.BRANCH_FOLDER).size() == 1) {
-            currRepo.updateFork(newCommit.getCommitID());
-        }
         updateBranchHead(currRepo.getBranch(), newCommit);
         saveRepo(currRepo);
     }
@@ -196,6 +341,7 @@ public class RepoCommand {
      */
     public static void remove(String fileName) {
         Repo currRepo = readRepo();
+        fileName = Repo.relativePath(fileName);
         File rmFile = Utils.join(currRepo.CWD, fileName);
         Commit currCommit = currRepo.getHead();
         TreeMap<String, String> headBlobMap = currCommit.getBlobMap();
@@ -203,17 +349,18 @@ public class RepoCommand {
 
         if (!rmFile.exists() && !headBlobMap.containsKey(fileName)) {
             System.out.println("File does not exist.");
-            System.exit(0);
+            Main.exit();
         } else {
             if (!headBlobMap.containsKey(fileName)
                     && currStage.containsKey(fileName)) {
                 currRepo.getStage().getAddTree().remove(fileName);
             } else if (headBlobMap.containsKey(fileName)) {
                 currRepo.getStage().toRemoveList(fileName);
-                Utils.restrictedDelete(rmFile);
+                currRepo.getStage().uncache(fileName);
+                Repo.deleteWorkingFile(fileName);
             } else {
                 System.out.println("No reason to remove the file.");
-                System.exit(0);
+                Main.exit();
             }
         }
         saveRepo(currRepo);
@@ -223,40 +370,63 @@ public class RepoCommand {
      * Prints the log info of the current Commit.
      *
      * @param currCommit current commit
+     * @param out        destination
      */
-    public static void printLog(Commit currCommit) {
-        System.out.println("===");
-        System.out.println("commit " + currCommit.getCommitID());
-        System.out.println("Date: " + currCommit.getTimestamp());
-        System.out.println(currCommit.getMessage());
-        System.out.println();
+    public static void printLog(Commit currCommit, PrintWriter out) {
+        out.println("===");
+        out.println("commit " + currCommit.getCommitID());
+        out.println("Date: " + currCommit.getTimestamp());
+        out.println(currCommit.getMessage());
+        out.println();
+    }
+
+    /**
+     * Returns a buffered writer onto the standard output.
+     *
+     * @return writer that must be flushed when done
+     */
+    private static PrintWriter stdout() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                System.out, StandardCharsets.UTF_8)));
     }
 
     /**
      * Starting at the current head commit, display information about
      * each commit backwards along the commit tree until the initial commit,
      * following the first parent commit links, ignoring any second parents
-     * found in merge commits.
+     * found in merge commits. The walk follows the commit graph and reads
+     * only the commits it prints, stopping at the first commit older than
+     * --since or once -n commits are printed.
+     *
+     * @param options -n COUNT, --since DATE and --grep TEXT limits
      */
-    public static void log() {
-        Repo currRepo = readRepo();
-        Commit currCommit = currRepo.getHead();
-        while (currCommit != null) {
-            printLog(currCommit);
-            currCommit = currCommit.getParent();
+    public static void log(String... options) {
+        LogLimits limits = new LogLimits(options);
+        CommitGraph graph = Repo.GRAPH;
+        PrintWriter out = stdout();
+        int pos = graph.find(readRepo().getHeadID());
+        while (pos != CommitGraph.NONE && !limits.done()
+                && !limits.tooOld(graph.time(pos))) {
+            limits.print(graph, pos, out);
+            pos = graph.parent(pos);
         }
-        saveRepo(currRepo);
+        out.flush();
     }
 
     /**
      * Like log, except displays information about all commits ever made.
      * The order of the commits does not matter.
+     *
+     * @param options -n COUNT, --since DATE and --grep TEXT limits
      */
-    public static void gLog() {
-        List<String> commitFiles = Utils.plainFilenamesIn(Repo.COMMIT_FOLDER);
-        for (String commitID : commitFiles) {
-            printLog(readCommit(commitID));
+    public static void gLog(String... options) {
+        LogLimits limits = new LogLimits(options);
+        CommitGraph graph = Repo.GRAPH;
+        PrintWriter out = stdout();
+        for (int pos = 0; pos < graph.size() && !limits.done(); pos += 1) {
+            limits.print(graph, pos, out);
         }
+        out.flush();
     }
 
     /**
@@ -269,19 +439,304 @@ public class RepoCommand {
      * @param commitMsg commit message
      */
     public static void find(String commitMsg) {
-        int counter = 0;
-        List<String> commitFiles = Utils.plainFilenamesIn(Repo.COMMIT_FOLDER);
-        for (String commitFile : commitFiles) {
-            Commit currCommit = readCommit(commitFile);
-            if (currCommit.getMessage().equals(commitMsg)) {
-                System.out.println(currCommit.getCommitID());
-                counter++;
-            }
+        printFound(Repo.MESSAGES.exact(commitMsg));
+    }
+
+    /**
+     * Prints out the ids of all commits whose commit message contains
+     * the given text, one per line.
+     *
+     * @param pattern text to search for
+     */
+    public static void findGrep(String pattern) {
+        printFound(Repo.MESSAGES.grep(pattern));
+    }
+
+    /**
+     * Prints out the given commit ids, one per line, or a message if
+     * there are none.
+     *
+     * @param commitIDs ids of the commits found
+     */
+    private static void printFound(List<String> commitIDs) {
+        for (String commitID : commitIDs) {
+            System.out.println(commitID);
         }
-        if (counter == 0) {
+        if (commitIDs.isEmpty()) {
             System.out.println("Found no commit with that message.");
-            System.exit(0);
+            Main.exit();
+        }
+    }
+
+    /**
+     * Prints the changes between two snapshots as unified diffs. With no
+     * commits, compares the stage with the working directory; with
+     * --staged, the head commit with the stage; with one commit or
+     * branch, that commit with the working directory; and with two, the
+     * first with the second. Paths after "--" limit the files compared.
+     * Only files whose blob IDs differ are read. A deleted and an added
+     * file similar enough are shown as a rename, unless --no-renames is
+     * given. Files are diffed in parallel and printed in path order as
+     * soon as each is ready, so at most DIFF_WINDOW diffs are held in
+     * memory.
+     *
+     * @param args commits, --staged, --histogram, --no-renames, and
+     *             -- PATHS
+     */
+    public static void diff(String... args) {
+        Repo currRepo = readRepo();
+        ArrayList<String> revs = new ArrayList<>();
+        ArrayList<String> paths = null;
+        boolean staged = false;
+        boolean renames = true;
+        Diff.Algorithm algorithm = Diff.Algorithm.MYERS;
+        for (String arg : args) {
+            if (paths != null) {
+                paths.add(Repo.relativePath(arg));
+            } else if (arg.equals("--")) {
+                paths = new ArrayList<>();
+            } else if (arg.equals("--staged") || arg.equals("--cached")) {
+                staged = true;
+            } else if (arg.equals("--histogram")) {
+                algorithm = Diff.Algorithm.HISTOGRAM;
+            } else if (arg.equals("--no-renames")) {
+                renames = false;
+            } else if (arg.startsWith("-")) {
+                revs = null;
+                break;
+            } else {
+                revs.add(arg);
+            }
+        }
+        if (revs == null || revs.size() > 2 || staged && !revs.isEmpty()) {
+            System.out.println("Incorrect Operands");
+            Main.exit();
+        }
+
+        Stage stage = currRepo.getStage();
+        TreeMap<String, String> staging = currRepo.getHead().getBlobMap();
+        staging.putAll(stage.getAddTree());
+        for (String removed : stage.getRemoveList()) {
+            staging.remove(removed);
+        }
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        boolean working = !staged && revs.size() < 2;
+        if (revs.size() == 2) {
+            String from = diffCommit(revs.get(0), currRepo).getTree();
+            String to = diffCommit(revs.get(1), currRepo).getTree();
+            TreeMap<String, String> changed = new TreeMap<>();
+            Tree.diff(from, to, "", changed);
+            for (Map.Entry<String, String> change : changed.entrySet()) {
+                if (underPaths(change.getKey(), paths)) {
+                    changes.put(change.getKey(), new String[] {
+                        Tree.find(from, change.getKey()), change.getValue()});
+                }
+            }
+        } else if (staged) {
+            compareSnapshots(currRepo.getHead().getBlobMap(), staging,
+                    paths, changes);
+        } else {
+            TreeMap<String, String> from = revs.isEmpty() ? staging
+                    : diffCommit(revs.get(0), currRepo).getBlobMap();
+            TreeSet<String> names = new TreeSet<>(from.keySet());
+            names.addAll(staging.keySet());
+            compareSnapshots(from, workingIDs(names, paths, stage), paths,
+                    changes);
+        }
+        if (renames) {
+            findRenames(changes, working);
+        }
+        printDiffs(changes, working, algorithm);
+    }
+
+    /**
+     * Replaces each deleted and added pair of files in CHANGES that is a
+     * rename with one entry under the new path, mapped to the old and new
+     * blob IDs, the old path and the similarity. An added file that copies
+     * a renamed file is mapped the same way, followed by "copy".
+     *
+     * @param changes path to {old, new} blob IDs, null where absent
+     * @param working true if the new versions are the working files
+     */
+    private static void findRenames(Map<String, String[]> changes,
+                                    boolean working) {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                deleted.put(change.getKey(), change.getValue()[0]);
+            } else if (change.getValue()[0] == null) {
+                added.put(change.getKey(), change.getValue()[1]);
+            }
+        }
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return;
+        }
+        List<Renames.Rename> found = Renames.find(deleted, added, path ->
+                working ? Utils.readContents(Utils.join(Repo.CWD, path))
+                        : Blob.read(added.get(path)).getContents());
+        for (Renames.Rename rename : found) {
+            String oldID = deleted.get(rename.getFrom());
+            String newID = added.get(rename.getTo());
+            String score = Integer.toString(rename.getScore());
+            changes.remove(rename.getFrom());
+            changes.put(rename.getTo(), rename.isCopy()
+                    ? new String[] {oldID, newID, rename.getFrom(), score,
+                        "copy"}
+                    : new String[] {oldID, newID, rename.getFrom(), score});
+        }
+    }
+
+    /**
+     * Returns the commit named by a diff operand: a branch name, or a
+     * commit ID that may be abbreviated.
+     *
+     * @param name branch name or commitID
+     * @param currRepo current repository
+     */
+    private static Commit diffCommit(String name, Repo currRepo) {
+        String commitID = Repo.readBranchID(name);
+        if (commitID == null) {
+            commitID = fixIDLength(name, currRepo);
+            commDExist(commitID, currRepo);
+        }
+        return readCommit(commitID);
+    }
+
+    /**
+     * Returns true if PATH is one of PATHS or lies in a directory among
+     * them, or if no paths were given.
+     *
+     * @param path relative path of a file
+     * @param paths relative paths given after "--", or null
+     */
+    private static boolean underPaths(String path, List<String> paths) {
+        if (paths == null || paths.isEmpty()) {
+            return true;
         }
+        for (String prefix : paths) {
+            if (prefix.isEmpty() || path.equals(prefix)
+                    || path.startsWith(prefix + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds to CHANGES every file under PATHS whose blob ID differs between
+     * the snapshots FROM and TO, mapped to its old and new blob IDs.
+     *
+     * @param from path to blob ID of the old snapshot
+     * @param to path to blob ID of the new snapshot
+     * @param paths relative paths given after "--", or null
+     * @param changes path to {old, new} blob IDs, null where absent
+     */
+    private static void compareSnapshots(Map<String, String> from,
+                                         Map<String, String> to,
+                                         List<String> paths,
+                                         Map<String, String[]> changes) {
+        TreeSet<String> names = new TreeSet<>(from.keySet());
+        names.addAll(to.keySet());
+        for (String name : names) {
+            String oldID = from.get(name);
+            String newID = to.get(name);
+            if (!Objects.equals(oldID, newID) && underPaths(name, paths)) {
+                changes.put(name, new String[] {oldID, newID});
+            }
+        }
+    }
+
+    /**
+     * Returns the blob IDs of the working copies of the files NAMES that
+     * lie under PATHS, hashed in parallel. Files whose stat matches the
+     * index are not read, and missing files are left out.
+     *
+     * @param names relative paths of the files
+     * @param paths relative paths given after "--", or null
+     * @param stage current stage
+     */
+    private static Map<String, String> workingIDs(Set<String> names,
+                                                  List<String> paths,
+                                                  Stage stage) {
+        return names.parallelStream()
+                .filter(name -> underPaths(name, paths)
+                        && Utils.join(Repo.CWD, name).isFile())
+                .collect(Collectors.toMap(name -> name, name -> stage.blobID(
+                        name, Utils.join(Repo.CWD, name))));
+    }
+
+    /**
+     * Prints the unified diff of every file in CHANGES, in path order,
+     * with the lines written as the bytes of the files. The diffs are
+     * computed on a pool of DIFF_THREADS threads, at most
+     * DIFF_WINDOW ahead of the one being printed.
+     *
+     * @param changes path to {old, new} blob IDs, null where absent
+     * @param working true if the new versions are the working files
+     * @param algorithm algorithm used to match lines
+     */
+    private static void printDiffs(Map<String, String[]> changes,
+                                   boolean working,
+                                   Diff.Algorithm algorithm) {
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(System.out), false);
+        ExecutorService pool = Executors.newFixedThreadPool(DIFF_THREADS);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            for (Map.Entry<String, String[]> change : changes.entrySet()) {
+                String path = change.getKey();
+                String[] ids = change.getValue();
+                pending.add(pool.submit(() ->
+                        diffFile(path, ids, working, algorithm)));
+                if (pending.size() >= DIFF_WINDOW) {
+                    out.writeBytes(pending.poll().get());
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.writeBytes(pending.poll().get());
+            }
+        } catch (ExecutionException excp) {
+            throw Utils.error("Cannot diff: %s", excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+    }
+
+    /**
+     * Returns the unified diff of the file PATH between the blob IDs IDS.
+     *
+     * @param path relative path of the file
+     * @param ids old and new blob IDs, null where absent, then the old
+     *            path and similarity if the file was renamed, then
+     *            "copy" if it was copied
+     * @param working true if the new version is the working file
+     * @param algorithm algorithm used to match lines
+     */
+    private static byte[] diffFile(String path, String[] ids,
+                                   boolean working,
+                                   Diff.Algorithm algorithm) {
+        byte[] from = null;
+        byte[] to = null;
+        if (ids[0] != null) {
+            from = Blob.read(ids[0]).getContents();
+        }
+        if (ids[1] != null && working) {
+            to = Utils.readContents(Utils.join(Repo.CWD, path));
+        } else if (ids[1] != null) {
+            to = Blob.read(ids[1]).getContents();
+        }
+        if (ids.length > 4) {
+            return UnifiedDiff.formatCopy(ids[2], path,
+                    Integer.parseInt(ids[3]), from, to, algorithm);
+        } else if (ids.length > 2) {
+            return UnifiedDiff.formatRename(ids[2], path,
+                    Integer.parseInt(ids[3]), from, to, algorithm);
+        }
+        return UnifiedDiff.format(path, from, to, algorithm);
     }
 
     /**
@@ -326,30 +781,83 @@ public class RepoCommand {
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String modified : modifications(currRepo)) {
+            System.out.println(modified);
+        }
         System.out.println();
 
         System.out.println("=== Untracked Files ===");
-        for (String untrackedFile : untracked(currRepo.CWD)) {
+        for (String untrackedFile : untracked(currRepo.CWD, currRepo)) {
             System.out.println(untrackedFile);
         }
         System.out.println();
     }
 
     /**
-     * Returns the correct commitID if the passed
-     * in SHA1 is the first six digits.
+     * Returns the tracked or staged files whose working copies differ from
+     * what would be committed, each followed by " (modified)" or
+     * " (deleted)", in sorted order. The candidate files are hashed in
+     * parallel on the common fork-join pool; files whose stat matches the
+     * index are not read at all.
      *
-     * @param commitID SHA1 ID of the commit
+     * @param currRepo current repository
+     */
+    public static List<String> modifications(Repo currRepo) {
+        TreeMap<String, String> tracked = currRepo.getHead().getBlobMap();
+        Stage stage = currRepo.getStage();
+        TreeMap<String, String> expected = new TreeMap<>(tracked);
+        expected.putAll(stage.getAddTree());
+        for (String removed : stage.getRemoveList()) {
+            expected.remove(removed);
+        }
+        return expected.entrySet().parallelStream()
+                .map(entry -> modification(entry.getKey(), entry.getValue(),
+                        stage))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the status line of the given file if its working copy does
+     * not hold the blob that would be committed, or null otherwise.
+     *
+     * @param fileName file name
+     * @param blobID   SHA1 of the blob that would be committed
+     * @param stage    current stage
+     */
+    private static String modification(String fileName, String blobID,
+                                       Stage stage) {
+        File file = Utils.join(Repo.CWD, fileName);
+        if (!file.isFile()) {
+            return fileName + " (deleted)";
+        } else if (!stage.blobID(fileName, file).equals(blobID)) {
+            return fileName + " (modified)";
+        }
+        return null;
+    }
+
+    /**
+     * Returns the full commitID that the given abbreviated SHA1 starts
+     * with, looked up in the commit graph. Prints a message if more than
+     * one commit matches. The ID returned is spelled as the graph stores
+     * it, in lowercase, whatever the case of COMMITID.
+     *
+     * @param commitID SHA1 ID of the commit, possibly abbreviated
      * @param currRepo current repository
      */
     public static String fixIDLength(String commitID, Repo currRepo) {
-        List<String> commitFiles =
-                Utils.plainFilenamesIn(currRepo.COMMIT_FOLDER);
-        if (commitID.length() != SHA1LENGTH) {
-            for (String commitName : commitFiles) {
-                if (commitName.startsWith(commitID)) {
-                    commitID = commitName;
-                }
+        if (commitID.length() == SHA1LENGTH) {
+            int pos = Repo.GRAPH.find(commitID);
+            if (pos != CommitGraph.NONE) {
+                commitID = Repo.GRAPH.id(pos);
+            }
+        } else {
+            List<String> matches = Repo.GRAPH.matches(commitID, 2);
+            if (matches.size() > 1) {
+                System.out.println("Ambiguous commit id.");
+                Main.exit();
+            } else if (matches.size() == 1) {
+                commitID = matches.get(0);
             }
         }
         return commitID;
@@ -363,11 +871,9 @@ public class RepoCommand {
      * @param currRepo current repository
      */
     public static void commDExist(String commitID, Repo currRepo) {
-        List<String> commitFiles =
-                Utils.plainFilenamesIn(currRepo.COMMIT_FOLDER);
-        if (!commitFiles.contains(commitID)) {
+        if (Repo.GRAPH.find(commitID) == CommitGraph.NONE) {
             System.out.println("No commit with that id exists.");
-            System.exit(0);
+            Main.exit();
         }
     }
 
@@ -378,24 +884,27 @@ public class RepoCommand {
      * @param fileName   file name
      */
     public static void fileDExist(Commit currCommit, String fileName) {
-        if (!currCommit.getBlobMap().containsKey(fileName)) {
+        if (currCommit.getBlobID(fileName) == null) {
             System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            Main.exit();
         }
     }
 
     /**
-     * Returns the untracked files in the given directory as a ArrayList.
+     * Returns the untracked files in the given directory and its
+     * subdirectories as a ArrayList.
      *
      * @param directory current working directory
+     * @param currRepo  current repository
      */
-    public static ArrayList<String> untracked(File directory) {
-        Repo currRepo = readRepo();
-        List<String> dirFiles = Utils.plainFilenamesIn(directory);
+    public static ArrayList<String> untracked(File directory,
+                                              Repo currRepo) {
+        List<String> dirFiles = Repo.workingFiles();
+        TreeMap<String, String> tracked = currRepo.getHead().getBlobMap();
         ArrayList<String> untracked = new ArrayList<>();
         for (String dirFile : dirFiles) {
             if (!currRepo.getStage().getAddTree().containsKey(dirFile)
-                    && !currRepo.getHead().getBlobMap().containsKey(dirFile)) {
+                    && !tracked.containsKey(dirFile)) {
                 untracked.add(dirFile);
             }
         }
@@ -411,7 +920,7 @@ public class RepoCommand {
         if (!untrackedFiles.isEmpty()) {
             System.out.println("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
-            System.exit(0);
+            Main.exit();
         }
     }
 
@@ -422,8 +931,7 @@ public class RepoCommand {
      * @param currRepo   current repo
      */
     public static Commit readBranch(String branchName, Repo currRepo) {
-        File branchFile = Utils.join(currRepo.BRANCH_FOLDER, branchName);
-        return Utils.readObject(branchFile, Commit.class);
+        return readCommit(Repo.readBranchID(branchName));
     }
 
     /**
@@ -436,38 +944,33 @@ public class RepoCommand {
         _head = currRepo.getHead();
 
         if (args.length == 3) {
-            String fileName = args[2];
+            String fileName = Repo.relativePath(args[2]);
             fileDExist(_head, fileName);
-            File overWrite = Utils.join(Repo.CWD, fileName);
-            Blob blob = readBlob(_head, fileName);
-            String blobContent = blob.getBlobContents();
-            Utils.writeContents(overWrite, blobContent);
+            checkoutFile(fileName, _head.getBlobID(fileName),
+                    currRepo);
         } else if (args.length == 4) {
             String commitID = fixIDLength(args[1], currRepo);
-            String fileName = args[3];
+            String fileName = Repo.relativePath(args[3]);
             commDExist(commitID, currRepo);
-            fileDExist(_head, fileName);
-            File overWrite = Utils.join(Repo.CWD, fileName);
             Commit fromCommit = readCommit(commitID);
-            Blob blob = readBlob(fromCommit, fileName);
-            String blobContent = blob.getBlobContents();
-            Utils.writeContents(overWrite, blobContent);
+            fileDExist(fromCommit, fileName);
+            checkoutFile(fileName, fromCommit.getBlobID(fileName),
+                    currRepo);
         } else if (args.length == 2) {
             String branchName = args[1];
             File bFolder = currRepo.BRANCH_FOLDER;
             List<String> bFiles = Utils.plainFilenamesIn(bFolder);
             if (!bFiles.contains(branchName)) {
                 System.out.println("No such branch exists.");
-                System.exit(0);
+                Main.exit();
             }
             if (branchName.equals(currRepo.getBranch())) {
                 System.out.println("No need to checkout the current branch.");
-                System.exit(0);
+                Main.exit();
             }
-            printUntracked(untracked(currRepo.CWD));
+            printUntracked(untracked(currRepo.CWD, currRepo));
 
-            File newBFile = Utils.join(bFolder, branchName);
-            Commit newBHead = Utils.readObject(newBFile, Commit.class);
+            Commit newBHead = readBranch(branchName, currRepo);
 
             replaceFiles(newBHead, currRepo);
 
@@ -476,198 +979,93 @@ public class RepoCommand {
         saveRepo(currRepo);
     }
 
+    /** Writes the blob with the given ID to the given working file,
+     * creating its directory if needed, and records it in the index.
+     * @param fileName path of the file in the working directory
+     * @param blobID SHA1 of the blob
+     * @param currRepo current repository
+     * */
+    public static void checkoutFile(String fileName, String blobID,
+                                    Repo currRepo) {
+        File file = Utils.join(Repo.CWD, fileName);
+        file.getParentFile().mkdirs();
+        Blob.checkout(blobID, file);
+        currRepo.getStage().cache(fileName, file, blobID);
+    }
+
     /** replaces the CWD files with the given commit files.
+     * Only the files that differ between the trees of the head commit
+     * and the given commit are touched; subdirectories whose tree IDs
+     * match are skipped. Files staged for addition are replaced too.
+     * Deletions are done first; then the files whose stat cache does not
+     * already show the new contents are written in parallel.
      * @param newCommit commit that provides files
      * @param currRepo current repository
      * */
     public static void replaceFiles(Commit newCommit, Repo currRepo) {
-
-        List<String> dirFiles = Utils.plainFilenamesIn(currRepo.CWD);
-        TreeMap<String, String> newBlobMap = newCommit.getBlobMap();
-        Set<String> newBlobFiles = newBlobMap.keySet();
-
-        for (String dirFile : dirFiles) {
-            if (!newBlobMap.containsKey(dirFile)) {
-                Utils.restrictedDelete(dirFile);
-            }
+        TreeMap<String, String> changes = new TreeMap<>();
+        Tree.diff(currRepo.getHead().getTree(), newCommit.getTree(), "",
+                changes);
+        for (String staged : currRepo.getStage().getAddTree().keySet()) {
+            changes.put(staged, Tree.find(newCommit.getTree(), staged));
         }
-        for (String fileName : newBlobFiles) {
-            Utils.writeContents(Utils.join(currRepo.CWD, fileName),
-                    readBlob(newCommit, fileName).getBlobContents());
+        TreeMap<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String fileName = change.getKey();
+            if (change.getValue() == null) {
+                currRepo.getStage().uncache(fileName);
+                Repo.deleteWorkingFile(fileName);
+            } else if (!currRepo.getStage().holds(fileName,
+                    Utils.join(Repo.CWD, fileName), change.getValue())) {
+                writes.put(fileName, change.getValue());
+            }
         }
+        checkoutFiles(writes, currRepo);
         currRepo.updateHead(newCommit);
         currRepo.getStage().clear();
     }
 
-    public static void existInAll(Set<String> currBlobFiles,
-                                  Set<String> givenBlobFiles,
-                                  Set<String> splitBlobFiles,
-                                  Commit splitCommit, Commit currCommit,
-                                  Commit givenBCommit, Commit newCommit,
-                                  Repo currRepo) throws IOException {
-        for (String splitFile : splitBlobFiles) {
-            if (currBlobFiles.contains(splitFile)) {
-                for (String currFile : currBlobFiles) {
-                    if (givenBlobFiles.contains(splitFile)) {
-                        for (String givenFile : givenBlobFiles) {
-                            if (splitFile.equals(currFile) && splitFile.
-                                    equals(givenFile)) {
-                                if (readBlob(splitCommit, splitFile).
-                                        getBlobContents().equals(
-                                        readBlob(currCommit, currFile).
-                                                getBlobContents())
-                                        && !readBlob(splitCommit, splitFile).
-                                        getBlobContents().equals(
-                                        readBlob(givenBCommit, givenFile).
-                                                getBlobContents())) {
-                                    newCommit.addBlob(givenFile, readBlob(
-                                            givenBCommit, givenFile));
-                                } else if (!readBlob(splitCommit, splitFile).
-                                        getBlobContents().equals(
-                                        readBlob(currCommit, currFile).
-                                                getBlobContents())
-                                        && readBlob(splitCommit, splitFile).
-                                        getBlobContents().equals(
-                                        readBlob(givenBCommit, givenFile).
-                                                getBlobContents())) {
-                                    newCommit.addBlob(currFile, readBlob(
-                                            currCommit, currFile));
-                                } else if (!readBlob(splitCommit, splitFile).
-                                        getBlobContents().equals(
-                                        readBlob(currCommit, currFile).
-                                                getBlobContents())
-                                        && readBlob(currCommit, currFile).
-                                        getBlobContents().equals(
-                                        readBlob(givenBCommit, givenFile).
-                                                getBlobContents())) {
-                                    newCommit.addBlob(currFile, readBlob(
-                                            currCommit, currFile));
-                                }
-                            }
-                        }
-                    } else if (!givenBlobFiles.contains(splitFile)
-                            && readBlob(splitCommit, splitFile)
-                            .getBlobContents().equals(readBlob(currCommit,
-                                    currFile).getBlobContents())) {
-                        newCommit.removeBlob(currFile);
-                    }
-                }
-            }
+    /** Writes the blob of each file in FILES to the working directory on
+     * a pool of CHECKOUT_THREADS threads. Failures are reported in path
+     * order once every write has finished, and the command then stops.
+     * @param files path to blob ID of each file to write
+     * @param currRepo current repository
+     * */
+    private static void checkoutFiles(Map<String, String> files,
+                                      Repo currRepo) {
+        if (files.isEmpty()) {
+            return;
         }
-    }
-
-    public static void conflictCheck(Set<String> currBlobFiles,
-                                     Set<String> givenBlobFiles,
-                                     Set<String> splitBlobFiles,
-                                     Commit splitCommit, Commit currCommit,
-                                     Commit givenBCommit,
-                                     Commit newCommit, Repo currRepo)
-            throws IOException {
-        for (String splitFile : splitBlobFiles) {
-            if (currBlobFiles.contains(splitFile)) {
-                for (String currFile : currBlobFiles) {
-                    if (givenBlobFiles.contains(splitFile)) {
-                        for (String givenFile : givenBlobFiles) {
-                            if (splitFile.equals(currFile) && splitFile.
-                                    equals(givenFile)) {
-                                if (!readBlob(splitCommit, splitFile).
-                                        getBlobContents().equals(
-                                                readBlob(currCommit, currFile).
-                                                        getBlobContents())
-                                        && !readBlob(splitCommit, splitFile).
-                                        getBlobContents().equals(readBlob(
-                                                givenBCommit, givenFile).
-                                                        getBlobContents())
-                                        && !readBlob(currCommit, currFile).
-                                        getBlobContents().equals(readBlob(
-                                                givenBCommit, givenFile).
-                                                        getBlobContents())) {
-                                    conflictHelp2(currCommit, givenBCommit,
-                                            newCommit, currRepo, splitFile,
-                                            currFile, givenFile);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(CHECKOUT_THREADS, files.size()));
+        LinkedHashMap<String, Future<?>> results = new LinkedHashMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            results.put(file.getKey(), pool.submit(() -> checkoutFile(
+                    file.getKey(), file.getValue(), currRepo)));
         }
-        for (String split : splitBlobFiles) {
-            if (currBlobFiles.contains(split) && !givenBlobFiles.
-                    contains(split)) {
-                conflictHelp(currBlobFiles, splitCommit,
-                        currCommit, currCommit, newCommit,
-                        currRepo, split);
-            } else if (!currBlobFiles.contains(split) && givenBlobFiles.
-                    contains(split)) {
-                conflictHelp(givenBlobFiles, splitCommit,
-                        currCommit, givenBCommit, newCommit,
-                        currRepo, split);
-            }
-        }
-        for (String currFile : currBlobFiles) {
-            if (!splitBlobFiles.contains(currFile) && givenBlobFiles.contains(
-                    currFile)) {
-                for (String givenFile : givenBlobFiles) {
-                    if (currFile.equals(givenFile)
-                            && !readBlob(currCommit, currFile).getBlobContents()
-                            .equals(readBlob(givenBCommit, givenFile)
-                                    .getBlobContents())) {
-                        conflictHelp2(currCommit, givenBCommit, newCommit,
-                                currRepo, currFile, currFile, givenFile);
-                    }
-                }
+        pool.shutdown();
+        boolean failed = false;
+        for (Map.Entry<String, Future<?>> result : results.entrySet()) {
+            try {
+                result.getValue().get();
+            } catch (ExecutionException excp) {
+                System.out.println("Cannot check out " + result.getKey()
+                        + ": " + excp.getCause().getMessage());
+                failed = true;
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                failed = true;
             }
         }
-    }
-
-    public static void conflictHelp2(Commit currCommit, Commit givenBCommit,
-                                     Commit newCommit, Repo currRepo,
-                                     String splitFile, String currFile,
-                                     String givenFile) throws IOException {
-        _conflict = true;
-        File conflictFile = Utils.join(
-                currRepo.CWD, splitFile);
-        conflictFile.createNewFile();
-        String conflictContent = "<<<<<<< HEAD\n"
-                + readBlob(currCommit, currFile)
-                .getBlobContents()
-                + "=======\n"
-                + readBlob(givenBCommit, givenFile)
-                .getBlobContents()
-                + ">>>>>>>\n";
-        Utils.writeContents(conflictFile,
-                conflictContent);
-        Blob conflictBlob = new Blob(Utils.join(
-                Repo.CWD, splitFile));
-        newCommit.addBlob(splitFile, conflictBlob);
-    }
-
-    public static void conflictHelp(Set<String> givenBlobFiles,
-                                    Commit splitCommit, Commit currCommit,
-                                    Commit givenBCommit, Commit newCommit,
-                                    Repo currRepo,
-                                    String split) throws IOException {
-        for (String givenFile : givenBlobFiles) {
-            if (split.equals(givenFile)
-                    && !readBlob(splitCommit, givenFile).
-                    getBlobContents().equals(readBlob(givenBCommit,
-                            givenFile).getBlobContents())) {
-                _conflict = true;
-                File conflictFile = Utils.join(currRepo.CWD, givenFile);
-                conflictFile.createNewFile();
-                String conflictContent = "<<<<<<< HEAD\n" + readBlob(
-                        currCommit, givenFile).getBlobContents()
-                        + "=======\n" + ">>>>>>>\n";
-                Utils.writeContents(conflictFile, conflictContent);
-                Blob conflictBlob = new Blob(Utils.join(Repo.CWD,
-                        givenFile));
-                newCommit.addBlob(givenFile, conflictBlob);
-            }
+        if (failed) {
+            Main.exit();
         }
     }
 
     /** Replaces the directory wit the given branch commit files.
+     * The three root trees are merged in one walk that compares IDs, so
+     * subtrees that are equal on two sides are never read, and only the
+     * files in conflict have their contents read.
      * @param splitCommit split point commit
      * @param currCommit current branch head commit
      * @param givenBCommit given branch head commit
@@ -676,46 +1074,204 @@ public class RepoCommand {
      * */
     public static void mergeConditions(Commit splitCommit, Commit currCommit,
                                        Commit givenBCommit, String givenBranch,
-                                       Repo currRepo) throws IOException {
-        Set<String> currBlobFiles = currCommit.getBlobKeys();
-        Set<String> givenBlobFiles = givenBCommit.getBlobKeys();
-        Set<String> splitBlobFiles = splitCommit.getBlobKeys();
+                                       Repo currRepo) {
+        String[] trees = {splitCommit.getTree(), currCommit.getTree(),
+            givenBCommit.getTree()};
+        followRenames(trees);
+        TreeMap<String, String> changes = new TreeMap<>();
+        mergeTrees(trees[0], trees[1], trees[2], "", changes);
 
         Commit newCommit = new Commit("Merged " + givenBranch + " into "
-                + currRepo.getBranch() + ".", new TreeMap<>(),
-                givenBCommit, currCommit, currRepo);
+                + currRepo.getBranch() + ".",
+                Tree.update(trees[1], changes),
+                givenBCommit, currCommit);
+        writeCommit(newCommit);
 
-        existInAll(currBlobFiles, givenBlobFiles, splitBlobFiles, splitCommit,
-                currCommit, givenBCommit, newCommit, currRepo);
-        conflictCheck(currBlobFiles, givenBlobFiles, splitBlobFiles,
-                splitCommit, currCommit, givenBCommit, newCommit, currRepo);
+        replaceFiles(newCommit, currRepo);
+        updateBranchHead(currRepo.getBranch(), newCommit);
+    }
 
-        for (String currFile : currBlobFiles) {
-            if (!splitBlobFiles.contains(currFile)
-                    && !givenBlobFiles.contains(currFile)) {
-                newCommit.addBlob(currFile, readBlob(currCommit, currFile));
+    /** Moves files renamed since the split point on one branch to their
+     * new paths in the split tree and on the other branch, so that edits
+     * made to a file on one branch merge with its rename on the other.
+     * A file is moved only if the other branch still has it at its old
+     * path and has nothing at the new one. Copies are not followed. A
+     * file renamed to different paths on the two branches is a conflict;
+     * both new files are kept.
+     * @param trees SHA1 IDs of the split, current and given trees,
+     *              replaced by the trees with the renames applied
+     * */
+    private static void followRenames(String[] trees) {
+        TreeMap<String, String> splitMoves = new TreeMap<>();
+        ArrayList<TreeMap<String, String>> moves = new ArrayList<>();
+        ArrayList<List<Renames.Rename>> renames = new ArrayList<>();
+        for (int side = 1; side <= 2; side += 1) {
+            moves.add(new TreeMap<>());
+            renames.add(renames(trees[0], trees[side]));
+        }
+        for (int side = 1; side <= 2; side += 1) {
+            String other = trees[3 - side];
+            TreeMap<String, String> otherMoves = moves.get(2 - side);
+            HashSet<String> otherTargets = new HashSet<>();
+            TreeMap<String, String> otherRenames = new TreeMap<>();
+            for (Renames.Rename rename : renames.get(2 - side)) {
+                otherTargets.add(rename.getTo());
+                if (!rename.isCopy()) {
+                    otherRenames.put(rename.getFrom(), rename.getTo());
+                }
             }
+            for (Renames.Rename rename : renames.get(side - 1)) {
+                String from = rename.getFrom();
+                if (rename.isCopy()) {
+                    continue;
+                } else if (otherRenames.containsKey(from)
+                        && !otherRenames.get(from).equals(rename.getTo())) {
+                    _conflict = true;
+                    continue;
+                }
+                String otherID = Tree.find(other, from);
+                if (otherID == null || otherTargets.contains(from)
+                        || Tree.find(other, rename.getTo()) != null
+                        || splitMoves.containsKey(from)) {
+                    continue;
+                }
+                splitMoves.put(from, null);
+                splitMoves.put(rename.getTo(), Tree.find(trees[0], from));
+                otherMoves.put(from, null);
+                otherMoves.put(rename.getTo(), otherID);
+            }
+        }
+        if (!splitMoves.isEmpty()) {
+            trees[0] = Tree.update(trees[0], splitMoves);
+            trees[1] = Tree.update(trees[1], moves.get(0));
+            trees[2] = Tree.update(trees[2], moves.get(1));
         }
-        for (String givenFile : givenBlobFiles) {
-            if (!splitBlobFiles.contains(givenFile)
-                    && !currBlobFiles.contains(givenFile)) {
-                newCommit.addBlob(givenFile, readBlob(givenBCommit, givenFile));
+    }
+
+    /** Returns the files renamed between the trees FROM and TO.
+     * @param from SHA1 ID of the old tree
+     * @param to SHA1 ID of the new tree
+     * @return renames from FROM to TO
+     * */
+    private static List<Renames.Rename> renames(String from, String to) {
+        TreeMap<String, String> changed = new TreeMap<>();
+        Tree.diff(from, to, "", changed);
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        for (Map.Entry<String, String> change : changed.entrySet()) {
+            if (change.getValue() == null) {
+                deleted.put(change.getKey(),
+                        Tree.find(from, change.getKey()));
+            } else if (Tree.find(from, change.getKey()) == null) {
+                added.put(change.getKey(), change.getValue());
             }
         }
-        for (String splitFile : splitBlobFiles) {
-            if (givenBlobFiles.contains(splitFile)
-                    && !currBlobFiles.contains(splitFile)
-                    && readBlob(splitCommit, splitFile).getBlobContents()
-                    .equals(readBlob(givenBCommit, splitFile)
-                                    .getBlobContents())) {
-                newCommit.removeBlob(splitFile);
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Renames.find(deleted, added,
+                path -> Blob.read(added.get(path)).getContents());
+    }
+
+    /** Adds to CHANGES the edits that turn the current tree into the merge
+     * of the current and given trees against the split tree.
+     * @param split SHA1 ID of the split point tree, or null
+     * @param curr SHA1 ID of the current tree, or null
+     * @param given SHA1 ID of the given tree, or null
+     * @param prefix path of the trees followed by '/', or ""
+     * @param changes path to new blob ID, or to null to delete the file
+     * */
+    private static void mergeTrees(String split, String curr, String given,
+                                   String prefix,
+                                   Map<String, String> changes) {
+        if (Objects.equals(curr, given) || Objects.equals(split, given)) {
+            return;
+        } else if (Objects.equals(split, curr)) {
+            Tree.diff(curr, given, prefix, changes);
+            return;
+        }
+        Tree splitTree = Tree.read(split);
+        Tree currTree = Tree.read(curr);
+        Tree givenTree = Tree.read(given);
+
+        TreeSet<String> names = new TreeSet<>(splitTree.getFiles().keySet());
+        names.addAll(currTree.getFiles().keySet());
+        names.addAll(givenTree.getFiles().keySet());
+        for (String name : names) {
+            String s = splitTree.getFiles().get(name);
+            String c = currTree.getFiles().get(name);
+            String g = givenTree.getFiles().get(name);
+            if (Objects.equals(c, g) || Objects.equals(s, g)) {
+                continue;
+            } else if (Objects.equals(s, c)) {
+                changes.put(prefix + name, g);
+            } else {
+                changes.put(prefix + name, mergeBlobs(s, c, g));
             }
         }
-        Utils.writeObject(Utils.join(Repo.COMMIT_FOLDER,
-                newCommit.getCommitID()), newCommit);
 
-        replaceFiles(newCommit, currRepo);
-        updateBranchHead(currRepo.getBranch(), newCommit);
+        TreeSet<String> dirs = new TreeSet<>(splitTree.getDirs().keySet());
+        dirs.addAll(currTree.getDirs().keySet());
+        dirs.addAll(givenTree.getDirs().keySet());
+        for (String dir : dirs) {
+            mergeTrees(splitTree.getDirs().get(dir),
+                    currTree.getDirs().get(dir),
+                    givenTree.getDirs().get(dir), prefix + dir + "/",
+                    changes);
+        }
+    }
+
+    /** Merges the changes made to a file on the current and given
+     * branches line by line and stores the result. Only the chunks
+     * changed differently on the two sides are marked as conflicts. A
+     * file deleted on one side, or a binary file, conflicts as a whole.
+     * @param splitID blob ID at the split point, or null if absent
+     * @param currID blob ID in the current commit, or null if deleted
+     * @param givenID blob ID in the given commit, or null if deleted
+     * @return blob ID of the merged file
+     * */
+    private static String mergeBlobs(String splitID, String currID,
+                                     String givenID) {
+        if (currID == null || givenID == null) {
+            return conflictBlob(currID, givenID);
+        }
+        byte[] split = splitID == null
+                ? null : Blob.read(splitID).getContents();
+        byte[] curr = Blob.read(currID).getContents();
+        byte[] given = Blob.read(givenID).getContents();
+        if (UnifiedDiff.binary(split) || UnifiedDiff.binary(curr)
+                || UnifiedDiff.binary(given)) {
+            return conflictBlob(currID, givenID);
+        }
+        ContentMerge merged = new ContentMerge(split, curr, given);
+        if (merged.hasConflict()) {
+            _conflict = true;
+        }
+        return Repo.BLOB_STORE.put(merged.result());
+    }
+
+    /** Stores the conflict file between the current and given versions
+     * of a file and records that the merge had a conflict.
+     * @param currID blob ID in the current commit, or null if deleted
+     * @param givenID blob ID in the given commit, or null if deleted
+     * @return blob ID of the conflict file
+     * */
+    private static String conflictBlob(String currID, String givenID) {
+        _conflict = true;
+        ByteArrayOutputStream conflictContent = new ByteArrayOutputStream();
+        conflictContent.writeBytes("<<<<<<< HEAD\n".getBytes(
+                StandardCharsets.UTF_8));
+        if (currID != null) {
+            conflictContent.writeBytes(Blob.read(currID).getContents());
+        }
+        conflictContent.writeBytes("=======\n".getBytes(
+                StandardCharsets.UTF_8));
+        if (givenID != null) {
+            conflictContent.writeBytes(Blob.read(givenID).getContents());
+        }
+        conflictContent.writeBytes(">>>>>>>\n".getBytes(
+                StandardCharsets.UTF_8));
+        return Repo.BLOB_STORE.put(conflictContent.toByteArray());
     }
 
     /**
@@ -725,8 +1281,7 @@ public class RepoCommand {
      * @param currCommit current commit
      */
     public static void updateBranchHead(String branchName, Commit currCommit) {
-        File currBranch = Utils.join(Repo.BRANCH_FOLDER, branchName);
-        Utils.writeObject(currBranch, currCommit);
+        Repo.writeBranchID(branchName, currCommit.getCommitID());
     }
 
     /**
@@ -739,10 +1294,9 @@ public class RepoCommand {
         File branchFile = new File(Repo.BRANCH_FOLDER, branchName);
         if (branchFile.exists()) {
             System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            Main.exit();
         } else {
-            currRepo.updateFork(currRepo.getHead().getCommitID());
-            updateBranchHead(branchName, currRepo.getHead());
+            Repo.writeBranchID(branchName, currRepo.getHeadID());
         }
         saveRepo(currRepo);
     }
@@ -757,7 +1311,7 @@ public class RepoCommand {
         File branchFile = Utils.join(currRepo.BRANCH_FOLDER, branchName);
         if (!branchFile.exists()) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            Main.exit();
         }
     }
 
@@ -776,7 +1330,7 @@ public class RepoCommand {
         branchDExist(branchName, currRepo);
         if (branchName.equals(currRepo.getBranch())) {
             System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            Main.exit();
         } else {
             branchFile.delete();
         }
@@ -795,121 +1349,174 @@ public class RepoCommand {
         Repo currRepo = readRepo();
         String cID = fixIDLength(commitID, currRepo);
         commDExist(cID, currRepo);
-        printUntracked(untracked(currRepo.CWD));
-
-        Commit newCommit = readCommit(commitID);
-        TreeMap<String, String> newBlobMap = newCommit.getBlobMap();
-        List<String> dirFiles = Utils.plainFilenamesIn(currRepo.CWD);
-        Set<String> newStageFiles = newBlobMap.keySet();
+        printUntracked(untracked(currRepo.CWD, currRepo));
 
-        for (String dirFile : dirFiles) {
-            if (!newBlobMap.containsKey(dirFile)) {
-                Utils.restrictedDelete(dirFile);
-            }
-        }
-        for (String fileName : newStageFiles) {
-            Utils.writeContents(Utils.join(currRepo.CWD, fileName),
-                    readBlob(newCommit, fileName).getBlobContents());
-        }
+        Commit newCommit = readCommit(cID);
+        replaceFiles(newCommit, currRepo);
         updateBranchHead(currRepo.getBranch(), newCommit);
-        currRepo.updateHead(newCommit);
-        currRepo.getStage().clear();
         saveRepo(currRepo);
     }
 
     /**
-     * Returns the original ancestors and merge ancestors
-     * of the given commit as a LinkedList.
+     * Adds the tree ID and, once each, the trees below it to the pack,
+     * and records under its path the first place each blob was seen.
      *
-     * @param commit Current commit
-     * @return A list of SHA1 IDs of given commits' ancestors.
+     * @param writer    pack being written
+     * @param treeID    SHA1 ID of the tree
+     * @param prefix    path of the tree followed by '/', or ""
+     * @param treeIDs   IDs of the trees already added
+     * @param blobPaths first path of every blob seen so far
      */
-    public static LinkedList<String> getAncestors(Commit commit) {
-        LinkedList<String> ancestors = new LinkedList<>();
-        if (commit == null) {
-            return new LinkedList<>();
-        } else {
-            ancestors.addAll(getAncestors(commit.getParent()));
-            ancestors.addAll(getAncestors(commit.getMergeParent()));
-            if (commit.getParent() != null) {
-                ancestors.add(commit.getParent().getCommitID());
-            } else if (commit.getMergeParent() != null) {
-                ancestors.add(commit.getMergeParent().getCommitID());
-            }
+    private static void packTree(Pack.Writer writer, String treeID,
+                                 String prefix, Set<String> treeIDs,
+                                 Map<String, String> blobPaths) {
+        if (!treeIDs.add(treeID)) {
+            return;
+        }
+        Tree tree = Tree.read(treeID);
+        writer.add(treeID, Pack.TREE, tree.toBytes());
+        for (Map.Entry<String, String> file : tree.getFiles().entrySet()) {
+            blobPaths.putIfAbsent(file.getValue(), prefix + file.getKey());
+        }
+        for (Map.Entry<String, String> dir : tree.getDirs().entrySet()) {
+            packTree(writer, dir.getValue(), prefix + dir.getKey() + "/",
+                    treeIDs, blobPaths);
         }
-        return ancestors;
     }
 
-    /** Returns the splitPoint Commit of the given two branches.
-     * Returns null otherwise.
-     * @param currBranch Current master branch name
-     * @param givenBranch Given branch name
-     * @param currRepo Current repository
-     * */
-    public static Commit specialSplit(String currBranch,
-                                      String givenBranch, Repo currRepo) {
-        Commit currBCommit = readBranch(currBranch, currRepo);
-        Commit givenBCommit = readBranch(givenBranch, currRepo);
-        ArrayList<String> pastPoints = new ArrayList<>();
-        while (currBCommit != null) {
-            for (String splitID : currRepo.getFork()) {
-                if (splitID.equals(currBCommit.getCommitID())) {
-                    pastPoints.add(splitID);
+    /**
+     * Packs every loose blob, tree and commit, together with the contents
+     * of the current pack, into a single new packfile and index, then
+     * deletes the loose copies of the objects packed. Objects written
+     * while the pack was being built stay loose. Versions of the same file
+     * are stored as deltas against each other when that saves at least
+     * half their size; they are tried newest first, in the order a walk
+     * of the history from the newest commit meets them. Blobs stored as
+     * chunks are packed as their chunk manifests, and their chunks as
+     * versions of the file whose manifest names them. Blobs no commit
+     * reaches are tried largest first. The commit graph and the message
+     * index are rebuilt from the packed commits.
+     */
+    public static void gc() {
+        Pack.Writer writer = new Pack.Writer(Repo.PACK);
+        LinkedHashMap<String, String> blobPaths = new LinkedHashMap<>();
+        TreeSet<String> treeIDs = new TreeSet<>();
+        ArrayList<Commit> commits = new ArrayList<>();
+        for (String commitID : commitIDs()) {
+            byte[] contents = readCommitBytes(commitID);
+            writer.add(commitID, Pack.COMMIT, contents);
+            commits.add(Commit.fromBytes(commitID, contents));
+        }
+        ArrayList<Commit> newestFirst = new ArrayList<>(commits);
+        newestFirst.sort(Comparator.comparingInt(Commit::getGeneration)
+                .reversed().thenComparing(Commit::getCommitID));
+        for (Commit commit : newestFirst) {
+            packTree(writer, commit.getTree(), "", treeIDs, blobPaths);
+        }
+        for (String treeID : Repo.PACK.ids(Pack.TREE)) {
+            packTree(writer, treeID, "", treeIDs, blobPaths);
+        }
+        TreeSet<String> manifestIDs =
+                new TreeSet<>(Repo.BLOB_STORE.manifestIds());
+        manifestIDs.addAll(Repo.PACK.ids(Pack.MANIFEST));
+        manifestIDs.removeAll(treeIDs);
+        for (Map.Entry<String, String> file
+                : new ArrayList<>(blobPaths.entrySet())) {
+            if (manifestIDs.contains(file.getKey())) {
+                byte[] manifest = Repo.BLOB_STORE.manifest(file.getKey());
+                byte[] raw = new byte[Pack.ID_BYTES];
+                for (int i = 0; i < manifest.length; i += raw.length) {
+                    System.arraycopy(manifest, i, raw, 0, raw.length);
+                    blobPaths.putIfAbsent(Pack.toHex(raw), file.getValue());
                 }
             }
-            currBCommit = currBCommit.getParent();
         }
+        TreeSet<String> blobIDs = new TreeSet<>(Repo.BLOB_STORE.ids());
+        blobIDs.removeAll(treeIDs);
+        blobIDs.addAll(Repo.PACK.ids(Pack.BLOB));
+        LinkedHashMap<String, List<String>> byPath = new LinkedHashMap<>();
+        for (Map.Entry<String, String> file : blobPaths.entrySet()) {
+            if (blobIDs.remove(file.getKey())) {
+                byPath.computeIfAbsent(file.getValue(),
+                        k -> new ArrayList<>()).add(file.getKey());
+            }
+        }
+        for (List<String> versions : byPath.values()) {
+            packVersions(writer, versions);
+        }
+        Map<String, Integer> sizes = blobIDs.parallelStream().collect(
+                Collectors.toMap(id -> id,
+                        id -> Blob.read(id).getContents().length));
+        ArrayList<String> unreached = new ArrayList<>(blobIDs);
+        unreached.sort(Comparator.comparing((String id) -> -sizes.get(id))
+                .thenComparing(id -> id));
+        packVersions(writer, unreached);
+        for (String blobID : manifestIDs) {
+            writer.add(blobID, Pack.MANIFEST,
+                    Repo.BLOB_STORE.manifest(blobID));
+        }
+        writer.finish();
+        Repo.GRAPH.rebuild(commits);
+        Repo.MESSAGES.rebuild(commits);
 
-        Collections.reverse(pastPoints);
-        while (givenBCommit != null) {
-            for (String past : pastPoints) {
-                if (past.equals(givenBCommit.getCommitID())) {
-                    return givenBCommit;
-                }
+        for (String blobID : Repo.BLOB_STORE.ids()) {
+            if (writer.wrote(blobID)) {
+                Repo.BLOB_STORE.removeLoose(blobID);
+            }
+        }
+        for (String blobID : Repo.BLOB_STORE.manifestIds()) {
+            if (writer.wrote(blobID)) {
+                Repo.BLOB_STORE.removeLoose(blobID);
+            }
+        }
+        for (String commitID : Utils.plainFilenamesIn(Repo.COMMIT_FOLDER)) {
+            if (writer.wrote(commitID)) {
+                Utils.join(Repo.COMMIT_FOLDER, commitID).delete();
             }
-            givenBCommit = givenBCommit.getParent();
         }
-        return null;
     }
 
     /**
-     * Returns the splitPoint Commit of the given two branches.
-     * Returns null otherwise.
+     * Adds the given versions of one file to the pack, each as a delta
+     * against the best of the few versions packed just before it.
      *
-     * @param currBranch  current branch
-     * @param givenBranch given branch
-     * @param currRepo    current repo
+     * @param writer   pack being written
+     * @param versions blob IDs of the versions of one file, in the order
+     *                 they are to be tried
      */
-    public static Commit splitPoint(String currBranch,
-                                    String givenBranch, Repo currRepo) {
-
-        Commit currBCommit = readBranch(currBranch, currRepo);
-        Commit givenBCommit = readBranch(givenBranch, currRepo);
-
-        LinkedList<String> givenBCAncestIDs = getAncestors(givenBCommit);
-        LinkedList<String> splitIDs = new LinkedList<>();
-        ArrayDeque<String> sha1Q = new ArrayDeque<>();
-
-        String currBCID = currBCommit.getCommitID();
-
-        sha1Q.add(currBCID);
-        while (!sha1Q.isEmpty()) {
-            String tempCID = sha1Q.pop();
-            if (givenBCAncestIDs.contains(tempCID)) {
-                splitIDs.add(tempCID);
+    private static void packVersions(Pack.Writer writer,
+                                     List<String> versions) {
+        ArrayDeque<Blob> window = new ArrayDeque<>();
+        TreeMap<String, Integer> depth = new TreeMap<>();
+        for (String blobID : versions) {
+            Blob blob = Blob.read(blobID);
+            byte[] contents = blob.getContents();
+            byte[] bestDelta = null;
+            String bestBase = null;
+            for (Blob base : window) {
+                if (depth.get(base.getShaID()) >= PACK_MAX_DEPTH) {
+                    continue;
+                }
+                byte[] delta = Delta.create(base.getContents(), contents);
+                if (delta.length < contents.length / 2
+                        && (bestDelta == null
+                        || delta.length < bestDelta.length)) {
+                    bestDelta = delta;
+                    bestBase = base.getShaID();
+                }
             }
-            if (readCommit(tempCID).getParent() != null) {
-                String parentCID = readCommit(tempCID).getParent().
-                        getCommitID();
-                sha1Q.add(parentCID);
+            if (bestDelta == null) {
+                writer.add(blobID, Pack.BLOB, contents);
+                depth.put(blobID, 0);
+            } else {
+                writer.addDelta(blobID, bestBase, bestDelta);
+                depth.put(blobID, depth.get(bestBase) + 1);
             }
-            if (readCommit(tempCID).getMergeParent() != null) {
-                String mergeParentCID = readCommit(tempCID).
-                        getMergeParent().getCommitID();
-                sha1Q.add(mergeParentCID);
+            window.addFirst(blob);
+            if (window.size() > PACK_WINDOW) {
+                window.removeLast();
             }
         }
-        return readCommit(splitIDs.get(0));
     }
 
     /**
@@ -919,43 +1526,35 @@ public class RepoCommand {
      */
     public static void merge(String branchName) throws IOException {
         Repo currRepo = readRepo();
-        String[] args = {"checkout", currRepo.getBranch()};
         if (!currRepo.getStage().getAddTree().isEmpty()
                 || !currRepo.getStage().getRemoveList().isEmpty()) {
             System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            Main.exit();
         }
         branchDExist(branchName, currRepo);
         if (currRepo.getBranch().equals(branchName)) {
             System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            Main.exit();
         }
-        printUntracked(untracked(currRepo.CWD));
+        printUntracked(untracked(currRepo.CWD, currRepo));
 
-        Commit currCommit = currRepo.getHead();
-        Commit givenBCommit = readBranch(branchName, currRepo);
-        Commit splitCommit = splitPoint(currRepo.getBranch(),
-                branchName, currRepo);
-        Commit specialSplit = specialSplit(currRepo.getBranch(),
-                branchName, currRepo);
-
-        String currBCID = currCommit.getCommitID();
-        String givenBCID = givenBCommit.getCommitID();
-
-        if (specialSplit.getCommitID().equals(currBCID)) {
-            args[1] = branchName;
-            checkout(args);
+        String currID = currRepo.getHeadID();
+        String givenID = Repo.readBranchID(branchName);
+        String splitID = MergeBase.find(currID, givenID).get(0);
+
+        if (splitID.equals(currID)) {
+            checkout(new String[] {"checkout", branchName});
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
-        } else if (specialSplit.getCommitID().equals(givenBCID)) {
+            Main.exit();
+        } else if (splitID.equals(givenID)) {
             System.out.println(
                     "Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            Main.exit();
         } else {
             _conflict = false;
 
-            mergeConditions(splitCommit, currCommit, givenBCommit,
-                    branchName, currRepo);
+            mergeConditions(readCommit(splitID), currRepo.getHead(),
+                    readCommit(givenID), branchName, currRepo);
 
             if (_conflict) {
                 System.out.println("Encountered a merge conflict.");
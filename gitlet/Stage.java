@@ -1,10 +1,27 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
-public class Stage implements Serializable {
+/** The staging area, stored on disk as a binary index. Besides the files
+ *  staged for addition and removal, the index records the size, mtime,
+ *  inode and blob ID of every working file it has hashed, so that an
+ *  unchanged file never has to be read again to learn its blob ID.
+ */
+public class Stage {
     /** TreeMap to store the added files with the fileName as the key and
      * the serialized blob as the value. */
     private TreeMap<String, String> _addTree;
@@ -13,20 +30,43 @@ public class Stage implements Serializable {
      * all the files need to be removed. */
     private ArrayList<String> _removeList;
 
+    /** Stat cache of working files, keyed by file name. */
+    private TreeMap<String, Entry> _cache;
+
+    /** Time the index was last written, in nanoseconds. A cache entry is
+     * trusted only if its file was modified strictly before then. */
+    private long _indexTime;
+
+    /** Magic number at the head of the index file. */
+    private static final int MAGIC = 0x44495243;
+
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+
+    /** Index entry flag of a file staged for addition. */
+    private static final int ADDED = 1;
+
+    /** Index entry flag of a file staged for removal. */
+    private static final int REMOVED = 2;
+
+    /** Index entry flag of a file with a stat cache entry. */
+    private static final int CACHED = 4;
+
     /** Stage constructor that initialize _addTree and _removeList. */
     public Stage() {
         _addTree = new TreeMap<>();
         _removeList = new ArrayList<>();
+        _cache = new TreeMap<>();
+        _indexTime = Long.MAX_VALUE;
     }
 
-    /** Adds the files to the blobMap
-     * Creates a file with blobSHAID as the name and blob as the content.
+    /** Adds the files to the blobMap.
+     * The file contents must already be in the blob store under blobSHAID.
      * @param fileName of the staged file
+     * @param blobID SHA1 of the stored file contents
      * */
-    public void toAddMap(String fileName) {
-        Blob blob = new Blob(Utils.join(Repo.CWD, fileName));
-        _addTree.put(fileName, blob.getShaID());
-        Utils.writeObject(Utils.join(Repo.BLOB_FOLDER, blob.getShaID()), blob);
+    public void toAddMap(String fileName, String blobID) {
+        _addTree.put(fileName, blobID);
     }
 
     /** Adds the file that needs to be removed to the list.
@@ -55,4 +95,211 @@ public class Stage implements Serializable {
     public ArrayList<String> getRemoveList() {
         return _removeList;
     }
+
+    /** Returns the blob ID of the working file FILE, named FILENAME,
+     * without reading it if its size, mtime and inode match the cache.
+     * Otherwise the file is hashed and the cache updated.
+     * @param fileName name of the file in the working directory
+     * @param file the working file
+     * @return SHA1 of the file contents
+     * */
+    public String blobID(String fileName, File file) {
+        Entry stat = Entry.stat(file);
+        String cached = cachedID(fileName, stat);
+        if (cached != null) {
+            return cached;
+        }
+        stat._blobID = Blob.hash(file);
+        synchronized (this) {
+            _cache.put(fileName, stat);
+        }
+        return stat._blobID;
+    }
+
+    /** Returns the blob ID of the working file FILE, named FILENAME, making
+     * sure that blob is in the blob store. An unchanged file whose blob is
+     * already stored is not read at all.
+     * @param fileName name of the file in the working directory
+     * @param file the working file
+     * @return SHA1 of the file contents
+     * */
+    public String storedID(String fileName, File file) {
+        String blobID = cachedID(fileName, Entry.stat(file));
+        if (blobID == null || !Repo.BLOB_STORE.contains(blobID)) {
+            blobID = Blob.store(file);
+            cache(fileName, file, blobID);
+        }
+        return blobID;
+    }
+
+    /** Returns true if the working file FILE, named FILENAME, is known
+     * from its cache entry to hold the blob BLOBID. The file is not read.
+     * @param fileName name of the file in the working directory
+     * @param file the working file
+     * @param blobID SHA1 of the expected contents
+     * @return whether the file is already up to date
+     * */
+    public boolean holds(String fileName, File file, String blobID) {
+        return blobID.equals(cachedID(fileName, Entry.stat(file)));
+    }
+
+    /** Returns the cached blob ID of FILENAME if its cache entry still
+     * matches STAT, or null.
+     * @param fileName name of the file in the working directory
+     * @param stat current stat of the file
+     * @return SHA1 of the file contents, or null
+     * */
+    String cachedID(String fileName, Entry stat) {
+        Entry entry;
+        synchronized (this) {
+            entry = _cache.get(fileName);
+        }
+        if (entry != null && stat != null && entry._size == stat._size
+                && entry._mtime == stat._mtime && entry._inode == stat._inode
+                && entry._mtime < _indexTime) {
+            return entry._blobID;
+        }
+        return null;
+    }
+
+    /** Records that the working file FILE, named FILENAME, now holds the
+     * blob BLOBID.
+     * @param fileName name of the file in the working directory
+     * @param file the working file
+     * @param blobID SHA1 of its contents
+     * */
+    public void cache(String fileName, File file, String blobID) {
+        Entry stat = Entry.stat(file);
+        if (stat != null) {
+            stat._blobID = blobID;
+            synchronized (this) {
+                _cache.put(fileName, stat);
+            }
+        }
+    }
+
+    /** Drops the cache entry of FILENAME.
+     * @param fileName name of the file in the working directory
+     * */
+    public synchronized void uncache(String fileName) {
+        _cache.remove(fileName);
+    }
+
+    /** Returns the binary index encoding of this stage.
+     * @return index contents
+     * */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            TreeSet<String> names = new TreeSet<>(_cache.keySet());
+            names.addAll(_addTree.keySet());
+            names.addAll(_removeList);
+            HashSet<String> removed = new HashSet<>(_removeList);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            for (String name : names) {
+                Entry entry = _cache.get(name);
+                int flags = (_addTree.containsKey(name) ? ADDED : 0)
+                        | (removed.contains(name) ? REMOVED : 0)
+                        | (entry != null ? CACHED : 0);
+                out.writeUTF(name);
+                out.writeByte(flags);
+                if ((flags & ADDED) != 0) {
+                    out.write(Pack.toBytes(_addTree.get(name)));
+                }
+                if (entry != null) {
+                    out.write(Pack.toBytes(entry._blobID));
+                    out.writeLong(entry._size);
+                    out.writeLong(entry._mtime);
+                    out.writeLong(entry._inode);
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot encode index.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the stage encoded in the binary index BYTES, written at
+     * INDEXTIME.
+     * @param bytes index contents
+     * @param indexTime modification time of the index, in nanoseconds
+     * @return decoded stage
+     * */
+    public static Stage fromBytes(byte[] bytes, long indexTime) {
+        Stage stage = new Stage();
+        stage._indexTime = indexTime;
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Unrecognized index format.");
+            }
+            byte[] raw = new byte[Pack.ID_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                int flags = in.readByte();
+                if ((flags & ADDED) != 0) {
+                    in.readFully(raw);
+                    stage._addTree.put(name, Pack.toHex(raw));
+                }
+                if ((flags & REMOVED) != 0) {
+                    stage._removeList.add(name);
+                }
+                if ((flags & CACHED) != 0) {
+                    Entry entry = new Entry();
+                    in.readFully(raw);
+                    entry._blobID = Pack.toHex(raw);
+                    entry._size = in.readLong();
+                    entry._mtime = in.readLong();
+                    entry._inode = in.readLong();
+                    stage._cache.put(name, entry);
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt index.");
+        }
+        return stage;
+    }
+
+    /** Stat information and blob ID of one working file. */
+    static class Entry {
+        /** SHA1 of the file contents. */
+        private String _blobID;
+        /** File size in bytes. */
+        private long _size;
+        /** Modification time in nanoseconds. */
+        private long _mtime;
+        /** Inode number, or 0 where the file system has none. */
+        private long _inode;
+
+        /** Returns the current stat of FILE, or null if it is missing.
+         * @param file working file
+         * @return stat entry without a blob ID
+         * */
+        static Entry stat(File file) {
+            try {
+                Entry entry = new Entry();
+                Map<String, Object> attrs;
+                try {
+                    attrs = Files.readAttributes(file.toPath(),
+                            "unix:size,lastModifiedTime,ino");
+                    entry._inode = ((Number) attrs.get("ino")).longValue();
+                    entry._size = ((Number) attrs.get("size")).longValue();
+                    entry._mtime = ((FileTime) attrs.get("lastModifiedTime"))
+                            .to(TimeUnit.NANOSECONDS);
+                } catch (UnsupportedOperationException
+                         | IllegalArgumentException excp) {
+                    BasicFileAttributes basic = Files.readAttributes(
+                            file.toPath(), BasicFileAttributes.class);
+                    entry._size = basic.size();
+                    entry._mtime = basic.lastModifiedTime()
+                            .to(TimeUnit.NANOSECONDS);
+                }
+                return entry;
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+    }
 }
@@ -0,0 +1,279 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** A directory snapshot: the blob IDs of the files and the tree IDs of the
+ *  subdirectories directly inside one directory. Trees are stored in the
+ *  object store under the SHA1 of their encoding, so an unchanged
+ *  directory has the same ID in every commit and is stored only once.
+ *  Paths handed to and returned from the static helpers are relative to
+ *  the working directory and separated by '/'.
+ *  @author Abdumijit A. Dolkun
+ */
+public class Tree {
+
+    /** Version of the tree encoding. */
+    private static final int VERSION = 1;
+
+    /** Entry type byte of a file. */
+    private static final int FILE = 'b';
+
+    /** Entry type byte of a subdirectory. */
+    private static final int DIR = 't';
+
+    /** Blob IDs of the files in this directory, by file name. */
+    private final TreeMap<String, String> _files = new TreeMap<>();
+
+    /** Tree IDs of the subdirectories of this directory, by name. */
+    private final TreeMap<String, String> _dirs = new TreeMap<>();
+
+    /** Returns the blob IDs of the files in this directory.
+     * @return file name to blob ID
+     * */
+    public TreeMap<String, String> getFiles() {
+        return _files;
+    }
+
+    /** Returns the tree IDs of the subdirectories of this directory.
+     * @return directory name to tree ID
+     * */
+    public TreeMap<String, String> getDirs() {
+        return _dirs;
+    }
+
+    /** Returns the encoding of this tree: a version byte, then one entry
+     * per name, in name order, of a type byte, the name and the raw
+     * 20-byte ID.
+     * @return encoded tree
+     * */
+    public byte[] toBytes() {
+        TreeMap<String, String> all = new TreeMap<>(_files);
+        all.putAll(_dirs);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            for (Map.Entry<String, String> entry : all.entrySet()) {
+                String name = entry.getKey();
+                out.writeByte(_dirs.containsKey(name) ? DIR : FILE);
+                out.writeUTF(name);
+                out.write(Pack.toBytes(entry.getValue()));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot encode tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Writes this tree into the object store.
+     * @return SHA1 ID of the tree
+     * */
+    public String save() {
+        return Repo.BLOB_STORE.put(toBytes());
+    }
+
+    /** Reads the tree with the given ID.
+     * @param id SHA1 ID of the tree, or null for the empty tree
+     * @return decoded tree
+     * */
+    public static Tree read(String id) {
+        Tree tree = new Tree();
+        if (id == null) {
+            return tree;
+        }
+        byte[] bytes = Repo.BLOB_STORE.get(id);
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            if (in.readByte() != VERSION) {
+                throw Utils.error("Unrecognized format of tree %s.", id);
+            }
+            byte[] raw = new byte[Pack.ID_BYTES];
+            while (in.available() > 0) {
+                int type = in.readByte();
+                String name = in.readUTF();
+                in.readFully(raw);
+                if (type == DIR) {
+                    tree._dirs.put(name, Pack.toHex(raw));
+                } else {
+                    tree._files.put(name, Pack.toHex(raw));
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt tree %s.", id);
+        }
+        return tree;
+    }
+
+    /** Writes the trees of the snapshot BLOBMAP, one per directory, and
+     * returns the ID of the root tree.
+     * @param blobMap path to blob ID of every file in the snapshot
+     * @return SHA1 ID of the root tree
+     * */
+    public static String write(SortedMap<String, String> blobMap) {
+        Tree tree = new Tree();
+        String dir = null;
+        TreeMap<String, String> sub = new TreeMap<>();
+        for (Map.Entry<String, String> entry : blobMap.entrySet()) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree._files.put(path, entry.getValue());
+                continue;
+            }
+            String name = path.substring(0, slash);
+            if (dir != null && !dir.equals(name)) {
+                tree._dirs.put(dir, write(sub));
+                sub = new TreeMap<>();
+            }
+            dir = name;
+            sub.put(path.substring(slash + 1), entry.getValue());
+        }
+        if (dir != null) {
+            tree._dirs.put(dir, write(sub));
+        }
+        return tree.save();
+    }
+
+    /** Applies CHANGES to the tree ID and returns the ID of the result.
+     * Only the directories on the paths of the changes are read and
+     * written again; every other subtree keeps its ID and is shared with
+     * the old tree.
+     * @param id SHA1 ID of the old root tree, or null
+     * @param changes path to new blob ID, or to null to delete the file
+     * @return SHA1 ID of the new root tree
+     * */
+    public static String update(String id,
+                                SortedMap<String, String> changes) {
+        String result = updateDir(id, changes);
+        return result == null ? new Tree().save() : result;
+    }
+
+    /** Applies CHANGES to the tree ID, as update does, but returns null
+     * if the result is empty.
+     * @param id SHA1 ID of the old tree, or null
+     * @param changes path to new blob ID, or to null to delete the file
+     * @return SHA1 ID of the new tree, or null
+     * */
+    private static String updateDir(String id,
+                                    SortedMap<String, String> changes) {
+        if (changes.isEmpty()) {
+            return id;
+        }
+        Tree tree = read(id);
+        String dir = null;
+        TreeMap<String, String> sub = new TreeMap<>();
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (entry.getValue() == null) {
+                    tree._files.remove(path);
+                } else {
+                    tree._files.put(path, entry.getValue());
+                }
+                continue;
+            }
+            String name = path.substring(0, slash);
+            if (dir != null && !dir.equals(name)) {
+                tree.updateSubdir(dir, sub);
+                sub = new TreeMap<>();
+            }
+            dir = name;
+            sub.put(path.substring(slash + 1), entry.getValue());
+        }
+        if (dir != null) {
+            tree.updateSubdir(dir, sub);
+        }
+        if (tree._files.isEmpty() && tree._dirs.isEmpty()) {
+            return null;
+        }
+        return tree.save();
+    }
+
+    /** Applies CHANGES, relative to the subdirectory NAME, to that
+     * subdirectory, dropping it if it ends up empty.
+     * @param name subdirectory name
+     * @param changes path to new blob ID, or to null to delete the file
+     * */
+    private void updateSubdir(String name, SortedMap<String, String> changes) {
+        String subID = updateDir(_dirs.get(name), changes);
+        if (subID == null) {
+            _dirs.remove(name);
+        } else {
+            _dirs.put(name, subID);
+        }
+    }
+
+    /** Returns the blob ID of the file at PATH under the tree ID.
+     * Only the trees on the way to the file are read.
+     * @param id SHA1 ID of the tree, or null
+     * @param path relative path of the file
+     * @return SHA1 ID of the blob, or null if there is no such file
+     * */
+    public static String find(String id, String path) {
+        String[] names = path.split("/");
+        for (int i = 0; id != null && i < names.length - 1; i += 1) {
+            id = read(id)._dirs.get(names[i]);
+        }
+        return id == null ? null : read(id)._files.get(names[names.length - 1]);
+    }
+
+    /** Adds every file of the tree ID to RESULT, with paths under PREFIX.
+     * @param id SHA1 ID of the tree, or null
+     * @param prefix path of the tree followed by '/', or ""
+     * @param result path to blob ID map being filled
+     * */
+    public static void flatten(String id, String prefix,
+                               Map<String, String> result) {
+        if (id == null) {
+            return;
+        }
+        Tree tree = read(id);
+        for (Map.Entry<String, String> file : tree._files.entrySet()) {
+            result.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree._dirs.entrySet()) {
+            flatten(dir.getValue(), prefix + dir.getKey() + "/", result);
+        }
+    }
+
+    /** Adds to CHANGES every file that differs between the trees FROM and
+     * TO, mapped to its blob ID in TO, or to null if TO lacks it.
+     * Subdirectories with the same tree ID on both sides are skipped
+     * without being read.
+     * @param from SHA1 ID of the old tree, or null
+     * @param to SHA1 ID of the new tree, or null
+     * @param prefix path of the trees followed by '/', or ""
+     * @param changes path to new blob ID map being filled
+     * */
+    public static void diff(String from, String to, String prefix,
+                            Map<String, String> changes) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        Tree oldTree = read(from);
+        Tree newTree = read(to);
+        for (Map.Entry<String, String> file : oldTree._files.entrySet()) {
+            if (!newTree._files.containsKey(file.getKey())) {
+                changes.put(prefix + file.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, String> file : newTree._files.entrySet()) {
+            if (!file.getValue().equals(oldTree._files.get(file.getKey()))) {
+                changes.put(prefix + file.getKey(), file.getValue());
+            }
+        }
+        TreeMap<String, String> dirs = new TreeMap<>(oldTree._dirs);
+        dirs.putAll(newTree._dirs);
+        for (String dir : dirs.keySet()) {
+            diff(oldTree._dirs.get(dir), newTree._dirs.get(dir),
+                    prefix + dir + "/", changes);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Renders the change between two versions of a file in unified diff
+ *  format: a header naming the file, then one hunk per group of nearby
+ *  edits, each with CONTEXT unchanged lines around it. Lines are compared
+ *  with their line terminators, so a last line that gains or loses its
+ *  newline shows up as changed and is marked as git marks it. Files
+ *  holding a NUL byte near their start are reported as binary. Lines are
+ *  compared and printed as the bytes of the files, whatever their
+ *  encoding.
+ *  @author Abdumijit A. Dolkun
+ */
+public class UnifiedDiff {
+
+    /** Number of unchanged lines shown around each edit. */
+    static final int CONTEXT = 3;
+
+    /** Number of leading bytes searched for a NUL to detect binary files. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** Returns the unified diff of the file PATH from FROM to TO.
+     * @param path relative path of the file
+     * @param from old contents, or null if the file is new
+     * @param to new contents, or null if the file is deleted
+     * @param algorithm algorithm used to match lines
+     * @return bytes of the diff, ending in a newline
+     * */
+    public static byte[] format(String path, byte[] from, byte[] to,
+                                Diff.Algorithm algorithm) {
+        StringBuilder out = new StringBuilder();
+        path = text(path);
+        out.append("diff --git a/").append(path).append(" b/").append(path)
+                .append('\n');
+        if (from == null) {
+            out.append("new file\n");
+        } else if (to == null) {
+            out.append("deleted file\n");
+        }
+        return body(path, path, from, to, algorithm, out);
+    }
+
+    /** Returns the unified diff of the file renamed from OLDPATH to PATH,
+     * whose contents changed from FROM to TO.
+     * @param oldPath relative path before the rename
+     * @param path relative path after the rename
+     * @param similarity similarity of the two versions, in percent
+     * @param from old contents
+     * @param to new contents
+     * @param algorithm algorithm used to match lines
+     * @return bytes of the diff, ending in a newline
+     * */
+    public static byte[] formatRename(String oldPath, String path,
+                                      int similarity, byte[] from, byte[] to,
+                                      Diff.Algorithm algorithm) {
+        StringBuilder out = new StringBuilder();
+        oldPath = text(oldPath);
+        path = text(path);
+        out.append("diff --git a/").append(oldPath).append(" b/")
+                .append(path).append('\n');
+        out.append("similarity index ").append(similarity).append("%\n");
+        out.append("rename from ").append(oldPath).append('\n');
+        out.append("rename to ").append(path).append('\n');
+        return body(oldPath, path, from, to, algorithm, out);
+    }
+
+    /** Returns the unified diff of the file PATH copied from OLDPATH,
+     * whose contents changed from FROM to TO.
+     * @param oldPath relative path of the original
+     * @param path relative path of the copy
+     * @param similarity similarity of the two versions, in percent
+     * @param from contents of the original
+     * @param to contents of the copy
+     * @param algorithm algorithm used to match lines
+     * @return bytes of the diff, ending in a newline
+     * */
+    public static byte[] formatCopy(String oldPath, String path,
+                                    int similarity, byte[] from, byte[] to,
+                                    Diff.Algorithm algorithm) {
+        StringBuilder out = new StringBuilder();
+        oldPath = text(oldPath);
+        path = text(path);
+        out.append("diff --git a/").append(oldPath).append(" b/")
+                .append(path).append('\n');
+        out.append("similarity index ").append(similarity).append("%\n");
+        out.append("copy from ").append(oldPath).append('\n');
+        out.append("copy to ").append(path).append('\n');
+        return body(oldPath, path, from, to, algorithm, out);
+    }
+
+    /** Appends to OUT the hunks of the change from FROM at OLDPATH to TO
+     * at PATH, and returns the result.
+     * @param oldPath relative path of the old version
+     * @param path relative path of the new version
+     * @param from old contents, or null if the file is new
+     * @param to new contents, or null if the file is deleted
+     * @param algorithm algorithm used to match lines
+     * @param out header written so far
+     * @return bytes of the diff, ending in a newline
+     * */
+    private static byte[] body(String oldPath, String path, byte[] from,
+                               byte[] to, Diff.Algorithm algorithm,
+                               StringBuilder out) {
+        String oldName = from == null ? "/dev/null" : "a/" + oldPath;
+        String newName = to == null ? "/dev/null" : "b/" + path;
+        if (binary(from) || binary(to)) {
+            out.append("Binary files ").append(oldName).append(" and ")
+                    .append(newName).append(" differ\n");
+            return bytes(out);
+        }
+        List<String> lines1 = lines(from);
+        List<String> lines2 = lines(to);
+        Diff diff = new Diff();
+        diff.setSequences(lines1, lines2);
+        diff.setAlgorithm(algorithm);
+        int[] edits = diff.diffs();
+        if (edits.length == 0) {
+            return bytes(out);
+        }
+        out.append("--- ").append(oldName).append('\n');
+        out.append("+++ ").append(newName).append('\n');
+        for (int first = 0; first < edits.length;) {
+            int last = first;
+            while (last + 4 < edits.length && edits[last + 4]
+                    - edits[last] - edits[last + 1] <= 2 * CONTEXT) {
+                last += 4;
+            }
+            hunk(edits, first, last, lines1, lines2, out);
+            first = last + 4;
+        }
+        return bytes(out);
+    }
+
+    /** Appends to OUT the hunk holding the edits FIRST through LAST of
+     * EDITS, as returned by Diff.diffs, between LINES1 and LINES2.
+     * @param edits edits from LINES1 to LINES2, four ints each
+     * @param first index of the first edit of the hunk
+     * @param last index of the last edit of the hunk
+     * @param lines1 old lines
+     * @param lines2 new lines
+     * @param out destination
+     * */
+    private static void hunk(int[] edits, int first, int last,
+                             List<String> lines1, List<String> lines2,
+                             StringBuilder out) {
+        int lastEnd1 = edits[last] + edits[last + 1];
+        int start1 = Math.max(0, edits[first] - CONTEXT);
+        int end1 = Math.min(lines1.size(), lastEnd1 + CONTEXT);
+        int start2 = edits[first + 2] - (edits[first] - start1);
+        int end2 = edits[last + 2] + edits[last + 3] + (end1 - lastEnd1);
+        out.append("@@ -").append(range(start1, end1 - start1))
+                .append(" +").append(range(start2, end2 - start2))
+                .append(" @@\n");
+        int pos = start1;
+        for (int k = first; k <= last; k += 4) {
+            append(' ', lines1, pos, edits[k], out);
+            append('-', lines1, edits[k], edits[k] + edits[k + 1], out);
+            append('+', lines2, edits[k + 2], edits[k + 2] + edits[k + 3],
+                    out);
+            pos = edits[k] + edits[k + 1];
+        }
+        append(' ', lines1, pos, end1, out);
+    }
+
+    /** Returns the hunk header range of LENGTH lines from the 0-based line
+     * START.
+     * @param start 0-based first line
+     * @param length number of lines
+     * @return range in the form git uses
+     * */
+    private static String range(int start, int length) {
+        if (length == 0) {
+            return start + ",0";
+        } else if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (start + 1) + "," + length;
+    }
+
+    /** Appends LINES[FROM .. TO-1] to OUT, each after the mark MARK.
+     * @param mark ' ', '-' or '+'
+     * @param lines lines of one version
+     * @param from first line
+     * @param to line after the last
+     * @param out destination
+     * */
+    private static void append(char mark, List<String> lines, int from,
+                               int to, StringBuilder out) {
+        for (int i = from; i < to; i += 1) {
+            String line = lines.get(i);
+            out.append(mark).append(line);
+            if (!line.endsWith("\n")) {
+                out.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Returns PATH as it is written in a diff: each char of the result
+     * holds one byte of its UTF-8 encoding, as in the lines of a file.
+     * @param path relative path of a file
+     * @return encoded path
+     * */
+    private static String text(String path) {
+        return new String(path.getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns the bytes of the diff text OUT, one per char.
+     * @param out diff text
+     * @return bytes of the diff
+     * */
+    private static byte[] bytes(StringBuilder out) {
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns the lines of CONTENTS, each with its terminating newline.
+     * Each char of a line holds one byte of CONTENTS (ISO-8859-1 maps
+     * bytes to chars one to one), so lines compare equal only if their
+     * bytes do, and encoding them back with ISO-8859-1 gives those bytes.
+     * @param contents file contents, or null
+     * @return lines, empty if CONTENTS is null
+     * */
+    static List<String> lines(byte[] contents) {
+        ArrayList<String> result = new ArrayList<>();
+        if (contents == null) {
+            return result;
+        }
+        String text = new String(contents, StandardCharsets.ISO_8859_1);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            result.add(text.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    /** Returns true if CONTENTS looks binary.
+     * @param contents file contents, or null
+     * @return whether a NUL byte appears near the start
+     * */
+    static boolean binary(byte[] contents) {
+        if (contents == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -13,6 +13,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -134,6 +135,25 @@ class Utils {
         }
     }
 
+    /** Write the result of concatenating the bytes in CONTENTS to FILE as
+     *  for writeContents, but through a temporary file in the same
+     *  directory that is then renamed over FILE, so that readers never see
+     *  a partially written FILE.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static void writeContentsAtomically(File file, Object... contents) {
+        try {
+            File temp = File.createTempFile("tmp", null,
+                                            file.getAbsoluteFile()
+                                            .getParentFile());
+            writeContents(temp, contents);
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,